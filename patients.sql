@@ -8,13 +8,59 @@ CREATE TABLE IF NOT EXISTS `patients`.`patients`
     `patient`         varchar(256) NOT NULL,
     `dob`             date         DEFAULT NULL,
     `encounter_date`  date         DEFAULT NULL,
-    `provider`        varchar(256) DEFAULT NULL,
     `encounter_note`  text,
     `chief_complaint` varchar(256),
+    -- the provider name is the name of the NPI in providers
     `provider_npi`    int          NOT NULL,
-    PRIMARY KEY (`id`)
+    -- truncated SHA-256 of the CSV line a row was imported from, NULL for rows created through the API
+    `content_hash`    binary(16)   DEFAULT NULL,
+    PRIMARY KEY (`id`),
+    -- a CSV line is imported once, see Patient.INGEST_SQL
+    UNIQUE KEY `uk_patients_content_hash` (`content_hash`),
+    -- filters of GET /patients; InnoDB appends the primary key to every secondary index,
+    -- so an equality filter plus "id > ? order by id" is a range scan of one index
+    KEY `idx_patients_provider_npi` (`provider_npi`),
+    KEY `idx_patients_chief_complaint` (`chief_complaint`),
+    KEY `idx_patients_patient` (`patient`),
+    KEY `idx_patients_dob` (`dob`),
+    KEY `idx_patients_encounter_date` (`encounter_date`)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
 
+-- provider names, stored once per NPI instead of on every patient row, see ProviderDictionary.
+-- An NPI without a name (the provider column was blank) has no row.
+CREATE TABLE IF NOT EXISTS `patients`.`providers`
+(
+    `npi`  int          NOT NULL,
+    `name` varchar(256) NOT NULL,
+    PRIMARY KEY (`npi`)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
+
+-- for a table created before the indexes were added:
+-- ALTER TABLE `patients`.`patients`
+--     ADD KEY `idx_patients_provider_npi` (`provider_npi`),
+--     ADD KEY `idx_patients_chief_complaint` (`chief_complaint`),
+--     ADD KEY `idx_patients_patient` (`patient`),
+--     ADD KEY `idx_patients_dob` (`dob`),
+--     ADD KEY `idx_patients_encounter_date` (`encounter_date`);
+
+-- for a table created before the CSV import was made idempotent (rows imported before are not recognized):
+-- ALTER TABLE `patients`.`patients`
+--     ADD COLUMN `content_hash` binary(16) DEFAULT NULL,
+--     ADD UNIQUE KEY `uk_patients_content_hash` (`content_hash`);
+
+-- for a table created with the provider column: create providers above, then move the names (the most frequent name of an NPI
+-- is kept, ties by name) and drop the column. Stop the servers and the CSV loader first, they write the column until upgraded.
+-- INSERT INTO `patients`.`providers` (`npi`, `name`)
+-- SELECT `provider_npi`, `provider` FROM (
+--     SELECT `provider_npi`, `provider`,
+--            ROW_NUMBER() OVER (PARTITION BY `provider_npi` ORDER BY COUNT(*) DESC, `provider`) AS `rank_in_npi`
+--     FROM `patients`.`patients`
+--     WHERE `provider` IS NOT NULL AND TRIM(`provider`) <> ''
+--     GROUP BY `provider_npi`, `provider`
+-- ) AS `names`
+-- WHERE `rank_in_npi` = 1;
+-- ALTER TABLE `patients`.`patients` DROP COLUMN `provider`;
+
 CREATE USER IF NOT EXISTS 'application'@'localhost' IDENTIFIED BY 'Welcome1';
 
 GRANT SELECT, INSERT, UPDATE, DELETE on `patients`.* TO 'application'@'localhost' WITH GRANT OPTION;
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.patients.benchmarks;
+
+import com.patients.CSVParser;
+import com.patients.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSVParser.lineToPatient and CSVParser.parseDate
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.logLevel=ERROR")
+public class CSVParserBenchmark {
+
+    /**
+     * Synthetic CSV lines, cycled through by the benchmark
+     */
+    @State(Scope.Thread)
+    public static class Lines {
+        // number of distinct lines
+        @Param({"10000"})
+        public int rows;
+
+        String[] lines;
+        int next;
+
+        @Setup
+        public void setUp() {
+            lines = new PatientDataGenerator(42).lines(rows).toArray(new String[0]);
+        }
+
+        String next() {
+            String line = lines[next];
+            next = next + 1 == lines.length ? 0 : next + 1;
+            return line;
+        }
+    }
+
+    /**
+     * Date strings of one format, cycled through by the benchmark
+     */
+    @State(Scope.Thread)
+    public static class Dates {
+        // one of the known formats, or invalid for the "Apirl 5, 1970" typos
+        @Param({"MMMM d, yyyy", "d MMMM yyyy", "MM/d/yyyy", "yyyy/MM/dd", "invalid"})
+        public String format;
+
+        // number of distinct date strings; more than the memo cache size (-DdateCacheSize) measures misses
+        @Param({"1000", "1000000"})
+        public int distinct;
+
+        String[] dates;
+        int next;
+
+        @Setup
+        public void setUp() {
+            PatientDataGenerator generator = new PatientDataGenerator(42);
+            dates = new String[distinct];
+            for (int i = 0; i < distinct; i++) {
+                dates[i] = "invalid".equals(format) ? generator.invalidDateString() : generator.dateString(format);
+            }
+        }
+
+        String next() {
+            String date = dates[next];
+            next = next + 1 == dates.length ? 0 : next + 1;
+            return date;
+        }
+    }
+
+    @Benchmark
+    public Patient lineToPatient(Lines lines) {
+        return CSVParser.lineToPatient(lines.next());
+    }
+
+    @Benchmark
+    public Date parseDate(Dates dates) {
+        return CSVParser.parseDate(dates.next());
+    }
+}
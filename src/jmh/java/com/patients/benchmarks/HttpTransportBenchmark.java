@@ -0,0 +1,102 @@
+package com.patients.benchmarks;
+
+import com.patients.JettyServer;
+import com.patients.model.Patient;
+import com.patients.servlets.PatientsServlet;
+import com.patients.store.PatientStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /patient and GET /patients over a real socket: HTTP/1.1 against h2c, with and without gzip.
+ * The server runs on the memory store so that the transport dominates. The response body sizes, i.e. the bytes
+ * on the wire without the headers, are printed once per trial; the latency is the benchmark result.
+ * Several client threads share one HttpClient, so with h2c their requests are multiplexed over one connection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dlog4j.logLevel=ERROR", "-DmaxLimits=100"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class HttpTransportBenchmark {
+
+    // gzip of the responses, the client always accepts it
+    @Param({"false", "true"})
+    public boolean compression;
+
+    // HTTP_1_1 or HTTP_2 (h2c)
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public HttpClient.Version version;
+
+    // records per GET /patients page
+    @Param({"100"})
+    public int pageSize;
+
+    private JettyServer server;
+    private HttpClient client;
+    private HttpRequest patient;
+    private HttpRequest page;
+
+    @Setup
+    public void setUp() throws Exception {
+        PatientStore store = PatientStore.memory();
+        try (PatientStore.Batch batch = store.beginBatch(Integer.MAX_VALUE)) {
+            for (Patient p : new PatientDataGenerator(42).patients(10000)) {
+                batch.add(p);
+            }
+            batch.commit();
+        }
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.setProperty(JettyServer.COMPRESSION, String.valueOf(compression));
+        System.setProperty(JettyServer.H2C, String.valueOf(version == HttpClient.Version.HTTP_2));
+        server = new JettyServer(port, JettyServer.Mode.BLOCKING, store);
+        server.start();
+
+        client = HttpClient.newBuilder().version(version).build();
+        patient = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/patient?id=42")).header("Accept-Encoding", "gzip").build();
+        page = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/patients?cursor=&limits=" + pageSize))
+                .header("Accept-Encoding", "gzip").build();
+        System.out.println("compression=" + compression + " " + version + ": GET /patient " + getPatient().length
+                + " bytes, GET /patients (" + pageSize + " records) " + getPage().length + " bytes, "
+                + PatientsServlet.MAX_LIMITS + "=" + System.getProperty(PatientsServlet.MAX_LIMITS));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.shutDown();
+    }
+
+    @Benchmark
+    public byte[] getPatient() throws Exception {
+        // the body as received, still compressed
+        return client.send(patient, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    public byte[] getPage() throws Exception {
+        return client.send(page, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
@@ -0,0 +1,371 @@
+package com.patients.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.patients.JettyServer;
+import com.patients.codec.PatientCodec;
+import com.patients.model.Patient;
+import com.patients.store.PatientStore;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open model load test of the REST endpoints: requests are sent at a fixed arrival rate whatever the response times,
+ * and the latency of a request is measured from the time it was scheduled, not the time it was sent. A slow server
+ * therefore shows up in the percentiles instead of silently lowering the request rate (coordinated omission).
+ * By default the server is started in process on the memory store, loaded with PatientDataGenerator patients;
+ * -DloadUrl targets a running server instead. The summary is printed and written as JSON to -DloadOutput.
+ */
+public class LoadTest {
+
+    // jvm option -DloadUrl, base url of a running server, e.g. http://localhost:8082; empty (default) starts one in process
+    public static final String LOAD_URL = "loadUrl";
+    // jvm option -DloadRate, requests per second
+    public static final String LOAD_RATE = "loadRate";
+    // jvm option -DloadSeconds, length of the measurement
+    public static final String LOAD_SECONDS = "loadSeconds";
+    // jvm option -DloadWarmupSeconds, requests of the warmup are sent at the same rate but not measured
+    public static final String LOAD_WARMUP_SECONDS = "loadWarmupSeconds";
+    // jvm option -DloadMix, relative weight of each operation, e.g. get=60,page=20,post=10,put=5,delete=5
+    public static final String LOAD_MIX = "loadMix";
+    // jvm option -DloadPageSize, records per GET /patients page
+    public static final String LOAD_PAGE_SIZE = "loadPageSize";
+    // jvm option -DloadRows, patients loaded into the in process server
+    public static final String LOAD_ROWS = "loadRows";
+    // jvm option -DloadSeed, seed of the generated patients and of the operation sequence
+    public static final String LOAD_SEED = "loadSeed";
+    // jvm option -DloadOutput, file of the JSON summary
+    public static final String LOAD_OUTPUT = "loadOutput";
+
+    /**
+     * The operations of the mix
+     */
+    enum Operation {
+        // GET /patient?id=
+        GET,
+        // GET /patients?cursor=&limits=, from a random id
+        PAGE,
+        // POST /patient
+        POST,
+        // PUT /patient
+        PUT,
+        // DELETE /patient?id= of a patient created by POST, a GET if there is none yet
+        DELETE
+    }
+
+    private final URI base;
+    private final int rows;
+    private final int pageSize;
+    private final Operation[] mix;
+    private final Random random;
+    private final PatientDataGenerator generator;
+    private final HttpClient client;
+    private final PatientCodec codec = PatientCodec.json();
+
+    // ids created by POST, deleted by DELETE so that the loaded patients stay
+    private final ConcurrentLinkedQueue<Integer> created = new ConcurrentLinkedQueue<>();
+
+    LoadTest(URI base, int rows, int pageSize, Operation[] mix, long seed, ExecutorService executor) {
+        this.base = base;
+        this.rows = rows;
+        this.pageSize = pageSize;
+        this.mix = mix;
+        this.random = new Random(seed);
+        this.generator = new PatientDataGenerator(seed);
+        this.client = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    /**
+     * Send the requests at the rate, the requests scheduled after measureFrom are recorded
+     * @return latencies and errors per operation
+     */
+    Map<Operation, Recorder> run(double rate, long warmupNanos, long measureNanos) throws IOException, InterruptedException {
+        Map<Operation, Recorder> recorders = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder());
+        }
+        List<CompletableFuture<?>> measured = new ArrayList<>();
+        long interval = (long) (1_000_000_000L / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + measureNanos;
+        for (long i = 0; ; i++) {
+            // the intended start time, late requests are sent right away and keep their intended time
+            long scheduled = start + i * interval;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = mix[random.nextInt(mix.length)];
+            HttpRequest request = request(operation);
+            if (request == null) {
+                operation = Operation.GET;
+                request = request(operation);
+            }
+            Recorder recorder = scheduled >= measureFrom ? recorders.get(operation) : null;
+            Operation sent = operation;
+            CompletableFuture<?> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .handle((resp, e) -> {
+                        long latency = System.nanoTime() - scheduled;
+                        boolean ok = e == null && (resp.statusCode() < 300 || resp.statusCode() == 304);
+                        if (ok && sent == Operation.POST) {
+                            try {
+                                created.add(createdId(resp.body()));
+                            } catch (RuntimeException invalid) {
+                                // a body without an id fails the request, not the run
+                                ok = false;
+                            }
+                        }
+                        if (recorder != null) {
+                            recorder.record(latency, ok);
+                        }
+                        return null;
+                    });
+            if (recorder != null) {
+                measured.add(response);
+            }
+        }
+        // the requests still running are waited for, their latency counts
+        CompletableFuture.allOf(measured.toArray(new CompletableFuture<?>[0])).join();
+        return recorders;
+    }
+
+    /**
+     * @param afterId the page starts after this id
+     * @return the cursor of GET /patients, built like the server does: "v1:" and the id, base64 url without padding
+     */
+    private static String cursor(int afterId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("v1:" + afterId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the request of the operation, null if a DELETE has no patient to delete
+     */
+    private HttpRequest request(Operation operation) throws IOException {
+        switch (operation) {
+            case GET:
+                return HttpRequest.newBuilder(base.resolve("/patient?id=" + (1 + random.nextInt(rows)))).build();
+            case PAGE:
+                String cursor = cursor(random.nextInt(rows));
+                return HttpRequest.newBuilder(base.resolve("/patients?cursor=" + cursor + "&limits=" + pageSize)).build();
+            case POST:
+                return HttpRequest.newBuilder(base.resolve("/patient"))
+                        .POST(HttpRequest.BodyPublishers.ofString(json(generator.nextPatient(0), false))).build();
+            case PUT:
+                return HttpRequest.newBuilder(base.resolve("/patient"))
+                        .PUT(HttpRequest.BodyPublishers.ofString(json(generator.nextPatient(1 + random.nextInt(rows)), true))).build();
+            case DELETE:
+                Integer id = created.poll();
+                return id == null ? null : HttpRequest.newBuilder(base.resolve("/patient?id=" + id)).DELETE().build();
+            default:
+                throw new IllegalArgumentException(operation.name());
+        }
+    }
+
+    private int createdId(String body) {
+        try {
+            return codec.read(new StringReader(body)).getId();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String json(Patient patient, boolean withId) throws IOException {
+        if (!withId) {
+            patient.setId(null);
+        }
+        StringWriter writer = new StringWriter();
+        codec.write(patient, writer);
+        return writer.toString();
+    }
+
+    /**
+     * @param mix e.g. get=60,page=20,post=10,put=5,delete=5
+     * @return one entry per unit of weight, so that a uniform pick follows the weights
+     */
+    static Operation[] parseMix(String mix) {
+        List<Operation> operations = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("not a valid mix entry: " + entry);
+            }
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            int weight = Integer.parseInt(parts[1].trim());
+            for (int i = 0; i < weight; i++) {
+                operations.add(operation);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("the mix has no weight: " + mix);
+        }
+        return operations.toArray(new Operation[0]);
+    }
+
+    /**
+     * Latencies of one operation, kept exactly so that p999 is not an approximation
+     */
+    static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+
+        synchronized void record(long latency, boolean ok) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        synchronized void merge(Recorder other) {
+            synchronized (other) {
+                latencies = Arrays.copyOf(latencies, Math.max(latencies.length, count + other.count));
+                System.arraycopy(other.latencies, 0, latencies, count, other.count);
+                count += other.count;
+                errors += other.errors;
+            }
+        }
+
+        /**
+         * @param seconds length of the measurement
+         * @return count, errors, throughput and latency percentiles in milliseconds
+         */
+        synchronized Map<String, Object> summary(double seconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", count);
+            summary.put("errors", errors);
+            summary.put("throughput", round(count / seconds));
+            summary.put("p50Ms", millis(sorted, 0.5));
+            summary.put("p99Ms", millis(sorted, 0.99));
+            summary.put("p999Ms", millis(sorted, 0.999));
+            summary.put("maxMs", count == 0 ? 0 : round(sorted[count - 1] / 1e6));
+            return summary;
+        }
+
+        private static double millis(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return round(sorted[Math.max(rank, 1) - 1] / 1e6);
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 1000) / 1000.0;
+        }
+    }
+
+    /**
+     * Run the load test with the -Dload* options, then print and write the summary
+     * @param args not used
+     * @throws Exception failure to start the server or to send the requests
+     */
+    public static void main(String[] args) throws Exception {
+        double rate = Double.parseDouble(System.getProperty(LOAD_RATE, "500"));
+        long seconds = Long.parseLong(System.getProperty(LOAD_SECONDS, "30"));
+        long warmupSeconds = Long.parseLong(System.getProperty(LOAD_WARMUP_SECONDS, "10"));
+        String mixOption = System.getProperty(LOAD_MIX, "get=60,page=20,post=10,put=5,delete=5");
+        Operation[] mix = parseMix(mixOption);
+        int pageSize = Integer.parseInt(System.getProperty(LOAD_PAGE_SIZE, "10"));
+        int rows = Integer.parseInt(System.getProperty(LOAD_ROWS, "100000"));
+        long seed = Long.parseLong(System.getProperty(LOAD_SEED, "42"));
+        Path output = Path.of(System.getProperty(LOAD_OUTPUT, "target/loadtest-result.json"));
+
+        JettyServer server = null;
+        String url = System.getProperty(LOAD_URL, "");
+        if (url.isEmpty()) {
+            // a local stand-in for MySQL, so that the run is repeatable and measures the server
+            PatientStore store = PatientStore.memory();
+            try (PatientStore.Batch batch = store.beginBatch(Integer.MAX_VALUE)) {
+                for (Patient patient : new PatientDataGenerator(seed).patients(rows)) {
+                    batch.add(patient);
+                }
+                batch.commit();
+            }
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            server = new JettyServer(port, JettyServer.Mode.valueOf(System.getProperty(JettyServer.SERVER_MODE, "blocking").toUpperCase()), store);
+            server.start();
+            url = "http://localhost:" + port;
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Map<Operation, Recorder> recorders;
+        try {
+            LoadTest test = new LoadTest(URI.create(url), rows, pageSize, mix, seed, executor);
+            recorders = test.run(rate, TimeUnit.SECONDS.toNanos(warmupSeconds), TimeUnit.SECONDS.toNanos(seconds));
+        } finally {
+            executor.shutdownNow();
+            if (server != null) {
+                server.shutDown();
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("url", System.getProperty(LOAD_URL, "in process"));
+        settings.put("serverMode", System.getProperty(JettyServer.SERVER_MODE, "blocking"));
+        settings.put("rate", rate);
+        settings.put("seconds", seconds);
+        settings.put("warmupSeconds", warmupSeconds);
+        settings.put("mix", mixOption);
+        settings.put("pageSize", pageSize);
+        settings.put("rows", rows);
+        settings.put("seed", seed);
+        summary.put("settings", settings);
+        Recorder all = new Recorder();
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Recorder> entry : recorders.entrySet()) {
+            Recorder recorder = entry.getValue();
+            all.merge(recorder);
+            if (recorder.count > 0) {
+                operations.put(entry.getKey().name().toLowerCase(), recorder.summary(seconds));
+            }
+        }
+        summary.put("all", all.summary(seconds));
+        summary.put("operations", operations);
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        String json = gson.toJson(summary);
+        System.out.println(json);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.writeString(output, json);
+    }
+}
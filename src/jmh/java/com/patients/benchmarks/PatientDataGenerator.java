@@ -0,0 +1,189 @@
+package com.patients.benchmarks;
+
+import com.patients.model.Patient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic patients modeled on Intern_Test_Data.csv: the same providers, complaints (typos included),
+ * the four known date formats with some invalid and blank dates, blank columns and lorem ipsum notes.
+ * The generator is seeded, so a given seed and scale always produce the same data.
+ */
+public class PatientDataGenerator {
+
+    private static final String[] FIRST_NAMES = {"john", "jane", "james", "robert", "michael", "william", "david", "richard",
+            "joseph", "mary", "patricia", "jennifer", "elizabeth", "barbara", "susan", "jessica", "karen", "daniel", "matthew",
+            "donald", "anthony", "paul", "kenneth"};
+    private static final String[] LAST_NAMES = {"smith", "johnson", "robinson", "williams", "brown", "davis", "garcia", "jones",
+            "miller", "rodriguez", "wilson", "duck"};
+    private static final String[] PROVIDERS = {"Dr. Jane Thompson", "Dr. Krishna Chandani", "Dr. Charles Wilson", "Dr. Tom Lau",
+            "Dr. Vin Hatfield", "Dr. Charles Wilson"};
+    private static final int[] PROVIDER_NPIS = {1, 3, 5, 6, 9, 11};
+    private static final String[] COMPLAINTS = {"diabetes", "heart disease", "headache", "high blood pressure", "stomach ache",
+            "insomnia", "bruising", "diabete", "head ache ", "stomachache", "hypertension", "hyper tension", "indigestion",
+            "cough", "coughing "};
+    private static final String[] WORDS = ("lorem ipsum dolor sit amet consectetur adipiscing elit curabitur nec dapibus turpis vel "
+            + "tempus velit in luctus at ligula eleifend euismod duis tincidunt massa quis egestas ex purus faucibus nunc eu ultrices "
+            + "eros quam porta diam cras non lectus nibh maecenas sem lacus sagittis tortor pellentesque eget convallis").split(" ");
+
+    /**
+     * The known date formats of CSVParser
+     */
+    public static final String[] DATE_FORMATS = {"MMMM d, yyyy", "d MMMM yyyy", "MM/d/yyyy", "yyyy/MM/dd"};
+
+    private static final DateTimeFormatter[] FORMATTERS = {
+            DateTimeFormatter.ofPattern(DATE_FORMATS[0], Locale.ENGLISH),
+            DateTimeFormatter.ofPattern(DATE_FORMATS[1], Locale.ENGLISH),
+            DateTimeFormatter.ofPattern("M/d/yyyy", Locale.ENGLISH),
+            DateTimeFormatter.ofPattern("yyyy/MM/dd", Locale.ENGLISH)
+    };
+
+    private final Random random;
+
+    public PatientDataGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return a CSV line with the 7 columns of Intern_Test_Data.csv
+     */
+    public String nextLine() {
+        int provider = random.nextInt(PROVIDERS.length);
+        return String.join(";",
+                name(),
+                blankOr(5, dateString(LocalDate.of(1930, 1, 1), LocalDate.of(2000, 12, 31))),
+                blankOr(5, dateString(LocalDate.of(2015, 1, 1), LocalDate.of(2022, 12, 31))),
+                blankOr(5, PROVIDERS[provider]),
+                note(),
+                blankOr(5, COMPLAINTS[random.nextInt(COMPLAINTS.length)]),
+                String.valueOf(PROVIDER_NPIS[provider]));
+    }
+
+    /**
+     * @param count number of lines
+     * @return CSV lines without the header
+     */
+    public List<String> lines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(nextLine());
+        }
+        return lines;
+    }
+
+    /**
+     * @return a patient as loaded from the DB, with an id and java.sql.Date dates
+     */
+    public Patient nextPatient(int id) {
+        int provider = random.nextInt(PROVIDERS.length);
+        Patient patient = new Patient();
+        patient.setId(id);
+        patient.setPatient(name());
+        patient.setDob(Date.valueOf(date(LocalDate.of(1930, 1, 1), LocalDate.of(2000, 12, 31))));
+        patient.setEncounterDate(Date.valueOf(date(LocalDate.of(2015, 1, 1), LocalDate.of(2022, 12, 31))));
+        patient.setProvider(PROVIDERS[provider]);
+        patient.setEncounterNote(note());
+        patient.setChiefComplaint(COMPLAINTS[random.nextInt(COMPLAINTS.length)]);
+        patient.setProviderNpi(PROVIDER_NPIS[provider]);
+        return patient;
+    }
+
+    /**
+     * @param count number of patients, with ids from 1 to count
+     * @return patients as loaded from the DB
+     */
+    public List<Patient> patients(int count) {
+        List<Patient> patients = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            patients.add(nextPatient(i));
+        }
+        return patients;
+    }
+
+    /**
+     * @param format one of DATE_FORMATS
+     * @return a valid date string in the format
+     */
+    public String dateString(String format) {
+        for (int i = 0; i < DATE_FORMATS.length; i++) {
+            if (DATE_FORMATS[i].equals(format)) {
+                return FORMATTERS[i].format(date(LocalDate.of(1930, 1, 1), LocalDate.of(2022, 12, 31)));
+            }
+        }
+        throw new IllegalArgumentException("unknown date format " + format);
+    }
+
+    /**
+     * @return an invalid date string like the "Apirl 5, 1970" typos of the test data
+     */
+    public String invalidDateString() {
+        return "Apirl " + (1 + random.nextInt(28)) + ", " + (1930 + random.nextInt(90));
+    }
+
+    private String name() {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    private String dateString(LocalDate from, LocalDate to) {
+        // about 1 in 20 dates has the "Apirl" typo of the test data
+        if (random.nextInt(20) == 0) {
+            return invalidDateString();
+        }
+        return FORMATTERS[random.nextInt(FORMATTERS.length)].format(date(from, to));
+    }
+
+    private LocalDate date(LocalDate from, LocalDate to) {
+        return from.plusDays(random.nextInt((int) (to.toEpochDay() - from.toEpochDay()) + 1));
+    }
+
+    private String note() {
+        // the test data notes are 60 to 110 words
+        int words = 60 + random.nextInt(50);
+        StringBuilder note = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                note.append(i % 12 == 0 ? ". " : " ");
+            }
+            note.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return note.append('.').toString();
+    }
+
+    /**
+     * @param percent chance of a blank column
+     */
+    private String blankOr(int percent, String value) {
+        return random.nextInt(100) < percent ? "" : value;
+    }
+
+    /**
+     * Write a synthetic CSV file, e.g. to load test CSVParser at scale
+     * @param args output file, number of rows and optionally the seed
+     * @throws IOException write error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: PatientDataGenerator <output.csv> <rows> [seed]");
+            System.exit(1);
+        }
+        long rows = Long.parseLong(args[1]);
+        PatientDataGenerator generator = new PatientDataGenerator(args.length > 2 ? Long.parseLong(args[2]) : 42L);
+        try (BufferedWriter writer = Files.newBufferedWriter(Path.of(args[0]))) {
+            writer.write("patient;dob;encounter date;provider;encounter note;chief complaint;provider npi\n");
+            for (long i = 0; i < rows; i++) {
+                writer.write(generator.nextLine());
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.patients.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import com.patients.codec.PatientCodec;
+import com.patients.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization of Patient and List&lt;Patient&gt;: reflective Gson, as the servlets used to do,
+ * against the shared PatientCodec
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.logLevel=ERROR")
+@State(Scope.Thread)
+public class PatientJsonBenchmark {
+
+    private static final Type PATIENT_LIST = new TypeToken<List<Patient>>() {}.getType();
+
+    // number of patients in a list, /patients pages are 10 rows by default
+    @Param({"10", "1000"})
+    public int size;
+
+    private final Gson gson = new Gson();
+    private final PatientCodec codec = PatientCodec.json();
+
+    private Patient patient;
+    private String patientJson;
+    private List<Patient> patients;
+    private String patientsJson;
+
+    @Setup
+    public void setUp() {
+        patients = new PatientDataGenerator(42).patients(size);
+        patient = patients.get(0);
+        patientJson = gson.toJson(requestJson(patient));
+        JsonArray array = new JsonArray();
+        for (Patient p : patients) {
+            array.add(requestJson(p));
+        }
+        patientsJson = gson.toJson(array);
+    }
+
+    /**
+     * Request bodies carry ISO dates like the README examples; the Gson output of java.sql.Date cannot be read back as java.util.Date
+     */
+    private JsonObject requestJson(Patient p) {
+        JsonObject json = gson.toJsonTree(p).getAsJsonObject();
+        json.addProperty("dob", p.getDob().toString());
+        json.addProperty("encounterDate", p.getEncounterDate().toString());
+        return json;
+    }
+
+    @Benchmark
+    public String serializePatient() {
+        return gson.toJson(patient);
+    }
+
+    /**
+     * The servlets create a new Gson per request
+     */
+    @Benchmark
+    public String serializePatientNewGson() {
+        return new Gson().toJson(patient);
+    }
+
+    @Benchmark
+    public Patient deserializePatient() {
+        return gson.fromJson(patientJson, Patient.class);
+    }
+
+    @Benchmark
+    public String serializeList() {
+        return gson.toJson(patients);
+    }
+
+    @Benchmark
+    public List<Patient> deserializeList() {
+        return gson.fromJson(patientsJson, PATIENT_LIST);
+    }
+
+    @Benchmark
+    public String codecSerializePatient() throws IOException {
+        StringWriter writer = new StringWriter();
+        codec.write(patient, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public Patient codecDeserializePatient() throws IOException {
+        return codec.read(new StringReader(patientJson));
+    }
+
+    @Benchmark
+    public String codecSerializeList() throws IOException {
+        StringWriter writer = new StringWriter();
+        PatientCodec.ListWriter list = codec.beginList(writer);
+        for (Patient p : patients) {
+            list.write(p);
+        }
+        list.end();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package com.patients.benchmarks;
+
+import com.patients.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Patient.rsToPatient over an in-memory ResultSet, one invocation maps a whole result set
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.logLevel=ERROR")
+@State(Scope.Thread)
+public class RsToPatientBenchmark {
+
+    // number of rows in the result set
+    @Param({"10", "1000"})
+    public int rows;
+
+    private ResultSet rs;
+
+    @Setup
+    public void setUp() {
+        rs = InMemoryResultSet.of(new PatientDataGenerator(42).patients(rows));
+    }
+
+    @Benchmark
+    public void rsToPatient(Blackhole blackhole) throws SQLException {
+        rs.beforeFirst();
+        while (rs.next()) {
+            blackhole.consume(Patient.rsToPatient(rs));
+        }
+    }
+}
@@ -1,23 +1,26 @@
 package com.patients;
 
+import com.patients.database.BatchInserter;
 import com.patients.database.Database;
+import com.patients.database.ProviderDictionary;
+import com.patients.ingest.DuplicateFilter;
+import com.patients.ingest.IngestCheckpoint;
+import com.patients.ingest.IngestPipeline;
+import com.patients.ingest.MappedCSVReader;
+import com.patients.metrics.MetricsRegistry;
 import com.patients.model.Patient;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.Strings;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.SQLException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
 
 /**
  * CSV parser for parsing the patients data
@@ -27,22 +30,33 @@ public class CSVParser {
     // LOGGER
     private final static Logger LOGGER = LogManager.getLogger(CSVParser.class);
 
-    /**
-     * Keep the known data formats as a list as a CSV file may contain multiple date formats.
-     * https://docs.oracle.com/javase/8/docs/api/java/text/SimpleDateFormat.html
-     * @return Date format in string
-     */
-    private static List<String> knownDateFormats() {
-        List<String> formats = new ArrayList<>();
-        formats.add("MMMM d, yyyy"); // January 9, 1940
-        formats.add("d MMMM yyyy"); // 5 June 1950
-        formats.add("MM/d/yyyy"); // 10/5/1948
-        formats.add("yyyy/MM/dd"); // 1955/08/03
-        return formats;
-    }
+    // jvm option -DbatchSize, number of rows per batch and per commit
+    public static final String BATCH_SIZE = "batchSize";
+    // jvm option -DbatchRetries, number of retries of a failed batch
+    public static final String BATCH_RETRIES = "batchRetries";
+    // jvm option -DparseThreads, number of parse workers of the ingest pipeline
+    public static final String PARSE_THREADS = "parseThreads";
+    // jvm option -DwriteThreads, number of writer workers of the ingest pipeline, each one holds a pooled connection
+    public static final String WRITE_THREADS = "writeThreads";
+    // jvm option -DqueueCapacity, number of blocks buffered between pipeline stages
+    public static final String QUEUE_CAPACITY = "queueCapacity";
+    // jvm option -DmetricsFile, the ingest metrics are written to this file in the Prometheus text format at the end
+    public static final String METRICS_FILE = "metricsFile";
+    // jvm option -Ddeduplicate, true to skip the lines already imported, needs the content_hash column; false by default
+    public static final String DEDUPLICATE = "deduplicate";
+    // jvm option -DcheckpointFile, progress of the sequential import, <csv file>.checkpoint by default
+    public static final String CHECKPOINT_FILE = "checkpointFile";
+
+    // average size of a CSV line, to size the DuplicateFilter from the file size
+    private static final int LINE_SIZE_ESTIMATE = 64;
+
+    // provider names and chief complaints repeat on every line
+    private static final ProviderDictionary DICTIONARY = ProviderDictionary.shared();
 
     /**
      * This function will accept the date as string and try to convert it into java.sql.Date
+     * The known formats are "MMMM d, yyyy" (January 9, 1940), "d MMMM yyyy" (5 June 1950),
+     * "MM/d/yyyy" (10/5/1948) and "yyyy/MM/dd" (1955/08/03), see DateParser.
      * Please note that the original CSV files contains typo for month like "Apirl" for "April",
      * for the time being, this function will just return null for the invalid date strings.
      * In real production, we may need to have more complex logic to handle typos.
@@ -58,22 +72,12 @@ public class CSVParser {
         if (Strings.isBlank(dateStr) || Strings.isEmpty(dateStr)) {
             return null;
         }
-        // for known date formats
-        for (String format:knownDateFormats()) {
-            try {
-                DateFormat f = new SimpleDateFormat(format);
-                // https://stackoverflow.com/questions/45143802/why-simpledateformat-does-not-throw-exception-for-invalid-format
-                // has to set lenient to false to handle 10/5/1948 vs 1955/08/03
-                f.setLenient(false);
-                // convert parsed java.util.Date to java.sql.Date
-                return new Date(f.parse(dateStr).getTime());
-            } catch (ParseException e) {
-                LOGGER.log(Level.INFO, "date format not " + format +", try next...");
-            }
+        Date date = DateParser.parse(dateStr);
+        if (date == null) {
+            LOGGER.log(Level.WARN, "unknown datetime format: " + dateStr);
         }
-        LOGGER.log(Level.WARN, "unknown datetime format: " + dateStr);
         // for string that known formats cannot parse, return null
-        return null;
+        return date;
     }
 
     /**
@@ -95,22 +99,35 @@ public class CSVParser {
             return null;
         }
 
+        return toPatient(columns[0], columns[1], columns[2], columns[3], columns[4], columns[5], Integer.parseInt(columns[6]));
+    }
+
+    /**
+     * convert the 7 columns of a CSV line to a Patient object
+     * @param patient column patient
+     * @param dob column dob, in one of the known date formats
+     * @param encounterDate column encounter date, in one of the known date formats
+     * @param provider column provider, nullable
+     * @param encounterNote column encounter note, nullable
+     * @param chiefComplaint column chief complaint, nullable
+     * @param providerNpi column provider npi
+     * @return A Patient object
+     */
+    public static Patient toPatient(String patient, String dob, String encounterDate, String provider, String encounterNote,
+                                    String chiefComplaint, int providerNpi) {
         // populate patient fields
-        Patient patient = new Patient();
-        patient.setPatient(columns[0]);
-        patient.setDob(parseDate(columns[1]));
-        patient.setEncounterDate(parseDate(columns[2]));
-        // nullable string
-        String provider = columns[3];
-        patient.setProvider(Strings.isBlank(provider) || Strings.isEmpty(provider) ? null : provider);
+        Patient p = new Patient();
+        p.setPatient(patient);
+        p.setDob(parseDate(dob));
+        p.setEncounterDate(parseDate(encounterDate));
+        // nullable string, the instance of the dictionary when the name of the NPI is known
+        p.setProvider(Strings.isBlank(provider) || Strings.isEmpty(provider) ? null : DICTIONARY.canonicalName(providerNpi, provider));
         // nullable string
-        String encounterNote = columns[4];
-        patient.setEncounterNote(Strings.isBlank(encounterNote) || Strings.isEmpty(encounterNote) ? null : encounterNote);
-        // nullable string
-        String chiefComplaint = columns[5];
-        patient.setChiefComplaint(Strings.isBlank(chiefComplaint) || Strings.isEmpty(chiefComplaint) ? null : chiefComplaint);
-        patient.setProviderNpi(Integer.parseInt(columns[6]));
-        return patient;
+        p.setEncounterNote(Strings.isBlank(encounterNote) || Strings.isEmpty(encounterNote) ? null : encounterNote);
+        // nullable string, interned: a few distinct values repeated on every line
+        p.setChiefComplaint(Strings.isBlank(chiefComplaint) || Strings.isEmpty(chiefComplaint) ? null : DICTIONARY.internChiefComplaint(chiefComplaint));
+        p.setProviderNpi(providerNpi);
+        return p;
     }
 
     /**
@@ -130,35 +147,111 @@ public class CSVParser {
             System.exit(1);
         }
 
+        // the pool and driver settings tuned for bulk inserts, unless another profile is chosen
+        if (System.getProperty(Database.DB_PROFILE) == null) {
+            System.setProperty(Database.DB_PROFILE, Database.LOADER_PROFILE);
+        }
+
         // validate DB options are set
         Database.validateSystemProperties();
 
+        int batchSize = Integer.parseInt(System.getProperty(BATCH_SIZE, "1000"));
+        int batchRetries = Integer.parseInt(System.getProperty(BATCH_RETRIES, "3"));
+
+        int parseThreads = Integer.parseInt(System.getProperty(PARSE_THREADS, "1"));
+        int writeThreads = Integer.parseInt(System.getProperty(WRITE_THREADS, "1"));
+        int queueCapacity = Integer.parseInt(System.getProperty(QUEUE_CAPACITY, "16"));
+        boolean deduplicate = Boolean.parseBoolean(System.getProperty(DEDUPLICATE, "false"));
+
+        long start = System.nanoTime();
+        long skipped;
+        long inserted;
+        if (parseThreads > 1 || writeThreads > 1) {
+            // staged pipeline: reader -> parse workers -> writer workers
+            IngestPipeline pipeline;
+            try {
+                DuplicateFilter duplicateFilter = deduplicate ? loadDuplicateFilter(Path.of(csvFileName)) : null;
+                pipeline = new IngestPipeline(parseThreads, writeThreads, batchSize, batchRetries, queueCapacity, duplicateFilter);
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("Cannot read the imported lines!", e);
+            }
+            try {
+                pipeline.run(Path.of(csvFileName));
+            } catch (Exception e) {
+                throw new IllegalStateException("CSV import failed after " + pipeline.getInserted() + " rows", e);
+            }
+            inserted = pipeline.getInserted();
+            skipped = pipeline.getSkipped();
+        } else {
+            long[] counts = ingest(csvFileName, batchSize, batchRetries, deduplicate);
+            inserted = counts[0];
+            skipped = counts[1];
+        }
+        // report the throughput
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        LOGGER.log(Level.INFO, "inserted " + inserted + " rows, skipped " + skipped + " lines in " + elapsedMillis + " ms ("
+                + (inserted * 1000 / elapsedMillis) + " rows/sec)");
+        // e.g. for the textfile collector of the Prometheus node exporter
+        String metricsFile = System.getProperty(METRICS_FILE);
+        if (metricsFile != null) {
+            try (Writer writer = Files.newBufferedWriter(Path.of(metricsFile))) {
+                MetricsRegistry.shared().write(writer);
+            } catch (IOException e) {
+                LOGGER.log(Level.ERROR, "failed to write metrics to " + metricsFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return the hashes of the imported lines, sized for the lines of the CSV file too
+     */
+    private static DuplicateFilter loadDuplicateFilter(Path csvFile) throws SQLException, IOException {
+        try (Connection conn = Database.getConnection()) {
+            return DuplicateFilter.load(conn, Files.size(csvFile) / LINE_SIZE_ESTIMATE);
+        }
+    }
+
+    /**
+     * Single threaded import: read, parse and insert in sequence over one connection.
+     * The position after every committed batch is saved to the checkpoint file, and the import resumes from there.
+     * @return the number of inserted rows and the number of skipped lines
+     */
+    private static long[] ingest(String csvFileName, int batchSize, int batchRetries, boolean deduplicate) {
+        Path csvFile = Path.of(csvFileName);
+        IngestCheckpoint checkpoint = new IngestCheckpoint(Path.of(System.getProperty(CHECKPOINT_FILE, csvFileName + ".checkpoint")), csvFile);
         // get the DB connection from the connection pool
         try (Connection conn = Database.getConnection()) {
             LOGGER.log(Level.DEBUG, "DB connection completes");
-            // read the CSV file line by line; Scanner for reading text
-            try (Scanner scanner = new Scanner(new File(csvFileName))) {
-                // skip first line
-                scanner.nextLine();
-                // loop until the end
-                while (scanner.hasNextLine()) {
-                    String line = scanner.nextLine();
-                    // convert line into patient
-                    Patient patient = lineToPatient(line);
-
-                    // skip for failed conversions
-                    if (patient == null) {
-                        continue; // skip insert if cannot parse
+            IngestCheckpoint.Position resume = checkpoint.load();
+            if (resume.getOffset() > 0) {
+                LOGGER.log(Level.INFO, "resuming " + csvFileName + " at line " + resume.getLine());
+            }
+            DuplicateFilter duplicateFilter = deduplicate ? DuplicateFilter.load(conn, (Files.size(csvFile) - resume.getOffset()) / LINE_SIZE_ESTIMATE) : null;
+            // read the CSV file through memory mapped windows, the first line is skipped
+            try (MappedCSVReader reader = new MappedCSVReader(csvFile);
+                 BatchInserter inserter = new BatchInserter(conn, batchSize, batchRetries, duplicateFilter)) {
+                reader.setContentHash(duplicateFilter != null);
+                long[] batches = {inserter.getBatches()};
+                // insert into DB, one commit per batch; lines that cannot be parsed are skipped by the reader
+                reader.read(new MappedCSVReader.Chunk(resume.getOffset(), reader.size()), resume.getLine(), (patient, line, next) -> {
+                    inserter.add(patient);
+                    if (inserter.getBatches() != batches[0]) {
+                        // the batch ending with this line is committed
+                        batches[0] = inserter.getBatches();
+                        checkpoint.save(new IngestCheckpoint.Position(next, line + 1));
                     }
-
-                    // insert into DB
-                    patient.insert(conn);
+                });
+                // commit the last partial batch
+                inserter.flush();
+                checkpoint.delete();
+                if (duplicateFilter != null) {
+                    LOGGER.log(Level.INFO, "skipped " + duplicateFilter.getDuplicates() + " lines already imported");
                 }
-            } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
+                return new long[] {inserter.getRowsInserted(), reader.getSkipped()};
             }
-        } catch (SQLException e) {
-            throw new IllegalStateException("Cannot connect the database!", e);
+        } catch (Exception e) {
+            // the original message, e.g. the row that cannot be inserted
+            throw new IllegalStateException("CSV import failed: " + e.getMessage(), e);
         }
     }
 }
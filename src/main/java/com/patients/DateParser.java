@@ -0,0 +1,210 @@
+package com.patients;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe, exception free parser for the date formats known by CSVParser:
+ * <ul>
+ *     <li>MMMM d, yyyy - January 9, 1940 (the short month name "Jan" is also accepted)</li>
+ *     <li>d MMMM yyyy - 5 June 1950</li>
+ *     <li>MM/d/yyyy - 10/5/1948</li>
+ *     <li>yyyy/MM/dd - 1955/08/03</li>
+ * </ul>
+ * Instead of trying every SimpleDateFormat until one does not throw, it looks at the shape of the string
+ * (month name first, day first or slash separated) and parses the numbers and the month name directly.
+ * It follows the non-lenient SimpleDateFormat rules the formats were used with: spaces before a field are skipped,
+ * the numbers can have any number of digits, the year is taken literally, out of range fields are rejected
+ * and anything after the last field is ignored. Month names are English.
+ * Parsed strings (including the invalid ones) are memoized as DOBs and encounter dates repeat heavily.
+ */
+public final class DateParser {
+
+    // jvm option -DdateCacheSize, maximum number of memoized date strings
+    public static final String DATE_CACHE_SIZE = "dateCacheSize";
+
+    private static final int CACHE_LIMIT = Integer.parseInt(System.getProperty(DATE_CACHE_SIZE, "10000"));
+
+    // memoized epoch millis by date string; the cache is dropped once full, so it follows the current distribution
+    private static final ConcurrentHashMap<String, Long> CACHE = new ConcurrentHashMap<>();
+
+    // cached value of an invalid date string
+    private static final long INVALID = Long.MIN_VALUE;
+
+    // result of a failed field parse
+    private static final long FAILED = -1;
+
+    // English month names, full names first so that "June" is preferred over "Jun"
+    private static final String[] MONTH_NAMES = {
+            "January", "February", "March", "April", "May", "June", "July", "August", "September", "October", "November", "December",
+            "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private DateParser() {
+    }
+
+    /**
+     * Convert the date string into java.sql.Date
+     * @param dateStr the date in one of the known formats
+     * @return java.sql.Date at midnight of the default time zone; null for null, blank or unknown date strings
+     */
+    public static Date parse(String dateStr) {
+        if (dateStr == null) {
+            return null;
+        }
+        Long cached = CACHE.get(dateStr);
+        if (cached == null) {
+            Date date = parseUncached(dateStr);
+            cached = date == null ? INVALID : date.getTime();
+            if (CACHE.size() >= CACHE_LIMIT) {
+                CACHE.clear();
+            }
+            CACHE.put(dateStr, cached);
+        }
+        // java.sql.Date is mutable, never share an instance
+        return cached == INVALID ? null : new Date(cached);
+    }
+
+    /**
+     * Convert the date string into java.sql.Date without the memo cache
+     * @param dateStr the date in one of the known formats
+     * @return java.sql.Date; null for blank or unknown date strings
+     */
+    static Date parseUncached(String dateStr) {
+        int pos = skipSpaces(dateStr, 0);
+        if (pos >= dateStr.length()) {
+            return null;
+        }
+        char first = dateStr.charAt(pos);
+        if (isDigit(first)) {
+            long number = parseNumber(dateStr, pos);
+            if (number == FAILED) {
+                return null;
+            }
+            int value = value(number);
+            pos = position(number);
+            if (pos < dateStr.length() && dateStr.charAt(pos) == '/') {
+                return parseSlashed(dateStr, value, pos + 1);
+            }
+            // d MMMM yyyy
+            pos = expect(dateStr, pos, ' ');
+            long month = parseMonthName(dateStr, pos);
+            if (month == FAILED) {
+                return null;
+            }
+            pos = expect(dateStr, position(month), ' ');
+            long year = parseNumber(dateStr, pos);
+            return year == FAILED ? null : toDate(value(year), value(month), value);
+        }
+        // MMMM d, yyyy
+        long month = parseMonthName(dateStr, pos);
+        if (month == FAILED) {
+            return null;
+        }
+        pos = expect(dateStr, position(month), ' ');
+        long day = parseNumber(dateStr, pos);
+        if (day == FAILED) {
+            return null;
+        }
+        pos = expect(dateStr, expect(dateStr, position(day), ','), ' ');
+        long year = parseNumber(dateStr, pos);
+        return year == FAILED ? null : toDate(value(year), value(month), value(day));
+    }
+
+    /**
+     * Either MM/d/yyyy or yyyy/MM/dd; like the original ordered formats, MM/d/yyyy wins when both are valid
+     */
+    private static Date parseSlashed(String dateStr, int first, int pos) {
+        long second = parseNumber(dateStr, pos);
+        if (second == FAILED) {
+            return null;
+        }
+        pos = expect(dateStr, position(second), '/');
+        long third = parseNumber(dateStr, pos);
+        if (third == FAILED) {
+            return null;
+        }
+        Date date = toDate(value(third), first, value(second));
+        return date != null ? date : toDate(first, value(second), value(third));
+    }
+
+    /**
+     * @return local midnight of the date, or null if the fields are out of range
+     */
+    private static Date toDate(int year, int month, int day) {
+        if (year < 1 || year > Year.MAX_VALUE || month < 1 || month > 12 || day < 1 || day > Year.of(year).atMonth(month).lengthOfMonth()) {
+            return null;
+        }
+        // same as SimpleDateFormat: midnight of the default time zone
+        return Date.valueOf(LocalDate.of(year, month, day));
+    }
+
+    /**
+     * @return value and position after the digits packed by pack(), FAILED if there is no digit or the number overflows
+     */
+    private static long parseNumber(String s, int pos) {
+        if (pos < 0) {
+            return FAILED;
+        }
+        pos = skipSpaces(s, pos);
+        int start = pos;
+        long value = 0;
+        while (pos < s.length() && isDigit(s.charAt(pos))) {
+            value = value * 10 + (s.charAt(pos) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return FAILED;
+            }
+            pos++;
+        }
+        return pos == start ? FAILED : pack((int) value, pos);
+    }
+
+    /**
+     * @return month (1-12) and position after the name packed by pack(), FAILED if there is no known month name
+     */
+    private static long parseMonthName(String s, int pos) {
+        if (pos < 0) {
+            return FAILED;
+        }
+        pos = skipSpaces(s, pos);
+        for (int i = 0; i < MONTH_NAMES.length; i++) {
+            String name = MONTH_NAMES[i];
+            if (s.regionMatches(true, pos, name, 0, name.length())) {
+                return pack(i % 12 + 1, pos + name.length());
+            }
+        }
+        return FAILED;
+    }
+
+    /**
+     * @return position after the expected literal, -1 if the literal is not there
+     */
+    private static int expect(String s, int pos, char literal) {
+        return pos >= 0 && pos < s.length() && s.charAt(pos) == literal ? pos + 1 : -1;
+    }
+
+    private static int skipSpaces(String s, int pos) {
+        while (pos < s.length() && (s.charAt(pos) == ' ' || s.charAt(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long pack(int value, int pos) {
+        return ((long) value << 32) | pos;
+    }
+
+    private static int value(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int position(long packed) {
+        return (int) packed;
+    }
+}
@@ -1,52 +1,253 @@
 package com.patients;
 
+import com.patients.cache.PatientCache;
 import com.patients.database.Database;
+import com.patients.database.ProviderDictionary;
+import com.patients.ingest.MappedCSVReader;
+import com.patients.servlets.MetricsServlet;
 import com.patients.servlets.PatientServlet;
+import com.patients.servlets.PatientsBatchServlet;
+import com.patients.servlets.PatientsExportServlet;
+import com.patients.search.SearchIndex;
+import com.patients.servlets.PatientsSearchServlet;
 import com.patients.servlets.PatientsServlet;
+import com.patients.servlets.PatientsStatsServlet;
+import com.patients.stats.PatientStats;
+import com.patients.store.JdbcPatientStore;
+import com.patients.store.MemoryPatientStore;
+import com.patients.store.ObservedPatientStore;
+import com.patients.store.PatientStore;
+import jakarta.servlet.Servlet;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.compression.CompressionPool;
+import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JettyServer, the CRUD application
  */
 public class JettyServer {
 
+    private final static Logger LOGGER = LogManager.getLogger(JettyServer.class);
+
+    // jvm option -DserverMode, blocking (default), async or virtual
+    public static final String SERVER_MODE = "serverMode";
+    // jvm option -DpatientStore, jdbc (default, MySQL) or memory (in-process, not persisted)
+    public static final String PATIENT_STORE = "patientStore";
+    // jvm option -DpatientStoreCsv, CSV file loaded into the memory store at startup
+    public static final String PATIENT_STORE_CSV = "patientStoreCsv";
+    // jvm option -DsearchIndex, true (default) to serve /patients/search from an in-process index built at startup
+    public static final String SEARCH_INDEX = "searchIndex";
+    // jvm option -DstatsRefreshSeconds, period of the rebuild of /patients/stats from the store, 0 (default) rebuilds at startup only
+    public static final String STATS_REFRESH_SECONDS = "statsRefreshSeconds";
+    // jvm option -Dcompression, true (default) to gzip the responses of the clients accepting it
+    public static final String COMPRESSION = "compression";
+    // jvm option -DcompressionMinSize, responses smaller than this number of bytes are not compressed
+    public static final String COMPRESSION_MIN_SIZE = "compressionMinSize";
+    // jvm option -DcompressionLevel, deflate level from 1 (fastest, default) to 9 (smallest)
+    public static final String COMPRESSION_LEVEL = "compressionLevel";
+    // jvm option -Dh2c, true to also accept cleartext HTTP/2 (prior knowledge or upgrade) on the server port
+    public static final String H2C = "h2c";
+
+    public static final String JDBC_STORE = "jdbc";
+    public static final String MEMORY_STORE = "memory";
+
+    /**
+     * How requests are served
+     */
+    public enum Mode {
+        // servlets block the Jetty thread serving the request
+        BLOCKING,
+        // servlets go async and run on the bounded JdbcExecutor, Jetty threads are released right away
+        ASYNC,
+        // servlets block a virtual thread per request, Java 21+
+        VIRTUAL
+    }
+
     /**
      * The Jetty Server object. Declare as a member so that it can be used for start and shutdown.
      */
     private final Server server;
 
+    // writes through the servlets are seen by the in-process views
+    private final ObservedPatientStore store;
+
+    // full-text index of /patients/search, null if disabled
+    private final SearchIndex searchIndex;
+
+    // counts of /patients/stats
+    private final PatientStats stats = new PatientStats();
+
+    // periodic rebuild of the stats, null if disabled
+    private ScheduledExecutorService statsRefresh;
+
     /**
-     * Initialize a JettyServer object with mapping servlets.
+     * Initialize a JettyServer object with mapping servlets, in the mode of -DserverMode and with the store of -DpatientStore.
      * @param port Server port such as 8080
      */
     public JettyServer(int port) {
+        this(port, Mode.valueOf(System.getProperty(SERVER_MODE, Mode.BLOCKING.name()).toUpperCase()), createStore());
+    }
+
+    /**
+     * Initialize a JettyServer object with mapping servlets.
+     * @param port Server port such as 8080
+     * @param mode how requests are served
+     * @param store storage of the patients
+     */
+    public JettyServer(int port, Mode mode, PatientStore store) {
+
+        // request threads, platform threads unless virtual threads are enabled and supported
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("jetty");
+        if (mode == Mode.VIRTUAL) {
+            if (VirtualThreads.areSupported()) {
+                threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            } else {
+                LOGGER.log(Level.WARN, "virtual threads are not supported by this JVM, requests are served by platform threads");
+            }
+        }
 
         // new server object
-        this.server = new Server(port);
+        this.server = new Server(threadPool);
+        HttpConfiguration config = new HttpConfiguration();
+        ServerConnector connector = Boolean.parseBoolean(System.getProperty(H2C, "false"))
+                // many small requests multiplexed over one connection
+                ? new ServerConnector(server, new HttpConnectionFactory(config), new HTTP2CServerConnectionFactory(config))
+                : new ServerConnector(server, new HttpConnectionFactory(config));
+        connector.setPort(port);
+        server.addConnector(connector);
 
         // add new handler
         ServletHandler handler = new ServletHandler();
-        server.setHandler(handler);
+        if (Boolean.parseBoolean(System.getProperty(COMPRESSION, "true"))) {
+            // encounter notes are prose, JSON bodies shrink several times
+            GzipHandler gzip = new GzipHandler();
+            gzip.setMinGzipSize(Integer.parseInt(System.getProperty(COMPRESSION_MIN_SIZE, "1024")));
+            // repetitive JSON compresses well at the fastest level, the higher ones mostly cost CPU
+            gzip.setDeflaterPool(new DeflaterPool(CompressionPool.DEFAULT_CAPACITY, Integer.parseInt(System.getProperty(COMPRESSION_LEVEL, "1")), true));
+            gzip.setIncludedMimeTypes("application/json", "application/x-ndjson", "text/plain", "text/csv");
+            gzip.setIncludedMethods("GET", "POST", "PUT");
+            gzip.setHandler(handler);
+            server.setHandler(gzip);
+        } else {
+            server.setHandler(handler);
+        }
+
+        // the cache only pays off in front of a remote store
+        PatientCache cache = store instanceof MemoryPatientStore ? new PatientCache(0, 0) : PatientCache.shared();
+        if (store instanceof JdbcPatientStore) {
+            // a new provider name changes every cached patient of the NPI, not only the written one
+            ProviderDictionary.shared().addListener(cache::invalidateProvider);
+        }
 
-        // handle paths
-        handler.addServletWithMapping(PatientServlet.class, "/patient");
-        handler.addServletWithMapping(PatientsServlet.class, "/patients");
+        this.store = new ObservedPatientStore(store);
+        this.searchIndex = Boolean.parseBoolean(System.getProperty(SEARCH_INDEX, "true")) ? new SearchIndex() : null;
+
+        // handle paths, async support switches the servlets to the JdbcExecutor
+        boolean async = mode == Mode.ASYNC;
+        addServlet(handler, new PatientServlet(this.store, cache), "/patient", async);
+        addServlet(handler, new PatientsServlet(this.store), "/patients", async);
+        addServlet(handler, new PatientsBatchServlet(this.store), "/patients/batch", async);
+        addServlet(handler, new PatientsExportServlet(this.store), "/patients/export", async);
+        if (searchIndex != null) {
+            this.store.addListener(searchIndex);
+            addServlet(handler, new PatientsSearchServlet(searchIndex), "/patients/search", async);
+        }
+        this.store.addListener(stats);
+        addServlet(handler, new PatientsStatsServlet(stats), "/patients/stats", async);
+        handler.addServletWithMapping(MetricsServlet.class, "/metrics");
+    }
+
+    private static void addServlet(ServletHandler handler, Servlet servlet, String path, boolean async) {
+        ServletHolder holder = new ServletHolder(servlet);
+        holder.setAsyncSupported(async);
+        handler.addServletWithMapping(holder, path);
     }
 
     /**
-     * Start the server object
+     * @return the store of -DpatientStore, the memory store is loaded with -DpatientStoreCsv if set
+     */
+    static PatientStore createStore() {
+        String name = System.getProperty(PATIENT_STORE, JDBC_STORE);
+        if (name.equals(JDBC_STORE)) {
+            return PatientStore.jdbc();
+        }
+        if (!name.equals(MEMORY_STORE)) {
+            throw new IllegalArgumentException("unknown patient store: " + name);
+        }
+        PatientStore store = PatientStore.memory();
+        String csvFileName = System.getProperty(PATIENT_STORE_CSV);
+        if (csvFileName != null) {
+            try (MappedCSVReader reader = new MappedCSVReader(Path.of(csvFileName));
+                 PatientStore.Batch batch = store.beginBatch(Integer.MAX_VALUE)) {
+                reader.read(reader.all(), batch::add);
+                batch.commit();
+                LOGGER.log(Level.INFO, "loaded " + reader.getParsed() + " patients from " + csvFileName + ", skipped " + reader.getSkipped() + " lines");
+            } catch (Exception e) {
+                throw new IllegalStateException("failed to load " + csvFileName, e);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Build the in-process views from the store, then start the server object
      * @throws Exception any exceptions during start
      */
     public void start() throws Exception {
+        if (searchIndex != null) {
+            long start = System.nanoTime();
+            searchIndex.build(store.getStore());
+            LOGGER.log(Level.INFO, "indexed " + searchIndex.size() + " patients for search in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        stats.build(store.getStore());
+        // rows written by the CSV loader or other servers are only seen by a rebuild
+        long refreshSeconds = Long.parseLong(System.getProperty(STATS_REFRESH_SECONDS, "0"));
+        if (refreshSeconds > 0) {
+            statsRefresh = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stats-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            statsRefresh.scheduleWithFixedDelay(this::refreshStats, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
         server.start();
     }
 
+    private void refreshStats() {
+        try {
+            stats.build(store.getStore());
+        } catch (Exception e) {
+            // the previous counts are kept
+            LOGGER.log(Level.ERROR, "failed to refresh the stats: ", e);
+        }
+    }
+
     /**
      * Shutdown the server object
      * @throws Exception any exceptions during shutdown
      */
     public void shutDown() throws Exception {
+        if (statsRefresh != null) {
+            statsRefresh.shutdownNow();
+        }
         this.server.stop();
     }
 
@@ -57,8 +258,10 @@ public class JettyServer {
      * @throws Exception any exceptions during CRUD runtime.
      */
     public static void main(String[] args) throws Exception {
-        // validate JVM options
-        Database.validateSystemProperties();
+        // validate JVM options, the database is not needed by the memory store
+        if (System.getProperty(PATIENT_STORE, JDBC_STORE).equals(JDBC_STORE)) {
+            Database.validateSystemProperties();
+        }
 
         // start the Jetty servers
         new JettyServer(Integer.parseInt(System.getProperty("serverPort", "8082"))).start();
@@ -0,0 +1,252 @@
+package com.patients.cache;
+
+import com.patients.model.Patient;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process read-through cache of patients by id, with an approximate LRU eviction and an optional time to live.
+ * Lookups take no lock; a load overlapping an invalidation of the same id is not cached, other ids are not affected.
+ * Writers must invalidate the ids they change. Please note that the invalidation is local to this JVM,
+ * the time to live bounds the staleness when several servers share the database.
+ * Cached Patient objects are shared between requests and must not be modified.
+ */
+public class PatientCache {
+
+    // jvm option -DpatientCacheSize, maximum number of cached patients, 0 disables the cache
+    public static final String PATIENT_CACHE_SIZE = "patientCacheSize";
+    // jvm option -DpatientCacheTtlSeconds, time to live of a cached patient, 0 for no expiry
+    public static final String PATIENT_CACHE_TTL_SECONDS = "patientCacheTtlSeconds";
+
+    private static final PatientCache SHARED = new PatientCache(
+            Integer.parseInt(System.getProperty(PATIENT_CACHE_SIZE, "10000")),
+            Long.parseLong(System.getProperty(PATIENT_CACHE_TTL_SECONDS, "0")) * 1000);
+
+    /**
+     * Loads a patient on a cache miss
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * @param id patient id
+         * @return the patient, null if not found (not cached)
+         * @throws SQLException any exception during the load
+         */
+        Patient load(int id) throws SQLException;
+    }
+
+    private static class Entry {
+        final int id;
+        // null while it is loaded
+        final Patient patient;
+        final long expiresAt;
+        // set by every hit, cleared when the clock hand passes
+        volatile boolean referenced;
+
+        Entry(int id, Patient patient, long expiresAt) {
+            this.id = id;
+            this.patient = patient;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    // a miss puts a placeholder entry, which is replaced by the loaded patient only if no invalidation removed it meanwhile
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    // the cached entries in insertion order, the clock of the eviction; the entries removed since are dropped as it turns
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+    // the loaded entries still in entries, what is bounded by maxSize
+    private final AtomicInteger cached = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of cached patients, 0 disables the cache
+     * @param ttlMillis time to live of a cached patient, 0 for no expiry
+     */
+    public PatientCache(int maxSize, long ttlMillis) {
+        if (maxSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("maxSize and ttlMillis cannot be less than 0");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * @return the cache shared by the servlets, configured by -DpatientCacheSize and -DpatientCacheTtlSeconds
+     */
+    public static PatientCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the patient from the cache, or load and cache it on a miss
+     * @param id patient id
+     * @param loader called on a miss, outside of any lock
+     * @return the patient, null if not found
+     * @throws SQLException exception from the loader
+     */
+    public Patient get(int id, Loader loader) throws SQLException {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.patient != null) {
+            if (ttlNanos == 0 || System.nanoTime() - entry.expiresAt < 0) {
+                entry.referenced = true;
+                hits.incrementAndGet();
+                return entry.patient;
+            }
+            // expired
+            if (remove(entry)) {
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        if (maxSize == 0) {
+            return loader.load(id);
+        }
+        // another load of the same id in flight keeps its placeholder, this one is not cached then
+        Entry loading = new Entry(id, null, 0);
+        boolean owner = entries.putIfAbsent(id, loading) == null;
+        Patient patient;
+        try {
+            patient = loader.load(id);
+        } catch (SQLException | RuntimeException e) {
+            entries.remove(id, loading);
+            throw e;
+        }
+        if (!owner) {
+            return patient;
+        }
+        if (patient == null) {
+            entries.remove(id, loading);
+            return null;
+        }
+        // skip a value that may have been changed while it was loaded: the invalidation removed the placeholder
+        Entry loaded = new Entry(id, patient, System.nanoTime() + ttlNanos);
+        if (entries.replace(id, loading, loaded)) {
+            cached.incrementAndGet();
+            clock.offer(loaded);
+            clockSize.incrementAndGet();
+            evict();
+        }
+        return patient;
+    }
+
+    /**
+     * Second chance (CLOCK) approximation of LRU: the entries hit since the last turn go round again, the first other one is removed.
+     * The clock also turns when the entries removed since fill more than half of it, to drop them without evicting live ones.
+     */
+    private void evict() {
+        while (cached.get() > maxSize || clockSize.get() > 2 * maxSize) {
+            Entry entry = clock.poll();
+            if (entry == null) {
+                return;
+            }
+            // no longer cached when it was invalidated or expired
+            if (entries.get(entry.id) != entry) {
+                clockSize.decrementAndGet();
+                continue;
+            }
+            if (cached.get() <= maxSize) {
+                clock.offer(entry);
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+                clock.offer(entry);
+                continue;
+            }
+            clockSize.decrementAndGet();
+            if (remove(entry)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove an entry if it is still the one of its id
+     * @param entry loaded entry or placeholder
+     * @return true if it was removed
+     */
+    private boolean remove(Entry entry) {
+        if (!entries.remove(entry.id, entry)) {
+            return false;
+        }
+        if (entry.patient != null) {
+            cached.decrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Remove a patient after it is updated or deleted, a load of it in flight is not cached
+     * @param id patient id
+     */
+    public void invalidate(int id) {
+        Entry entry = entries.remove(id);
+        if (entry != null && entry.patient != null) {
+            cached.decrementAndGet();
+        }
+    }
+
+    /**
+     * Remove the patients of a provider after its name changed, and the loads in flight which may have read the old name
+     * @param npi provider npi
+     */
+    public void invalidateProvider(int npi) {
+        for (Entry entry : entries.values()) {
+            if (entry.patient == null || Integer.valueOf(npi).equals(entry.patient.getProviderNpi())) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Remove all patients
+     */
+    public void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            remove(entry);
+        }
+        while (clock.poll() != null) {
+            clockSize.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of cached patients, expired ones and loads in flight included
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of lookups served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that went to the loader
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of patients removed because the cache was full or they expired
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
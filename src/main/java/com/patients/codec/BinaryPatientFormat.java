@@ -0,0 +1,222 @@
+package com.patients.codec;
+
+import com.patients.model.Patient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary format of GET /patients/export?format=bin, for bulk reloads.
+ * Records are written in blocks of up to BLOCK_ROWS rows, each column of a block is contiguous, so a reader can decode
+ * a column as an array or skip a block by its length. All numbers are big endian.
+ * <pre>
+ * file    = "PTNT" version:byte block* end:int(0)
+ * block   = rows:int(&gt;0) length:int(bytes of the columns) columns
+ * columns = id:int[rows] providerNpi:int[rows] dob:int[rows] encounterDate:int[rows]
+ *           patient:string[rows] provider:string[rows] chiefComplaint:string[rows] encounterNote:string[rows]
+ * string  = length:int(-1 for null) utf-8 bytes
+ * </pre>
+ * Dates are epoch days, Integer.MIN_VALUE for null; a null id or provider npi is written as 0.
+ * The end marker tells a complete file from a truncated one.
+ */
+public final class BinaryPatientFormat {
+
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    public static final int BLOCK_ROWS = 1024;
+
+    private static final byte[] MAGIC = {'P', 'T', 'N', 'T'};
+    private static final byte VERSION = 1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private BinaryPatientFormat() {
+    }
+
+    /**
+     * Start writing a file, at most one block is buffered
+     * @param stream the response body
+     * @return the writer of the records
+     * @throws IOException write error
+     */
+    public static PatientCodec.ListWriter beginList(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        return new PatientCodec.ListWriter() {
+            private final List<Patient> block = new ArrayList<>(BLOCK_ROWS);
+            private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            private final DataOutputStream columns = new DataOutputStream(bytes);
+
+            @Override
+            public void write(Patient patient) throws IOException {
+                block.add(patient);
+                if (block.size() == BLOCK_ROWS) {
+                    flush();
+                }
+            }
+
+            @Override
+            public void end() throws IOException {
+                flush();
+                out.writeInt(0);
+                out.flush();
+            }
+
+            private void flush() throws IOException {
+                if (block.isEmpty()) {
+                    return;
+                }
+                bytes.reset();
+                for (Patient patient : block) {
+                    columns.writeInt(patient.getId() == null ? 0 : patient.getId());
+                }
+                for (Patient patient : block) {
+                    columns.writeInt(patient.getProviderNpi() == null ? 0 : patient.getProviderNpi());
+                }
+                for (Patient patient : block) {
+                    columns.writeInt(epochDay(patient.getDob()));
+                }
+                for (Patient patient : block) {
+                    columns.writeInt(epochDay(patient.getEncounterDate()));
+                }
+                for (Patient patient : block) {
+                    writeString(columns, patient.getPatient());
+                }
+                for (Patient patient : block) {
+                    writeString(columns, patient.getProvider());
+                }
+                for (Patient patient : block) {
+                    writeString(columns, patient.getChiefComplaint());
+                }
+                for (Patient patient : block) {
+                    writeString(columns, patient.getEncounterNote());
+                }
+                out.writeInt(block.size());
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                block.clear();
+            }
+        };
+    }
+
+    /**
+     * Start reading a file, one block is held in memory
+     * @param stream the file
+     * @return the reader of the records
+     * @throws IOException read error, or not a file of this format
+     */
+    public static PatientCodec.ListReader readList(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+            throw new IOException("not a patients binary file of version " + VERSION);
+        }
+        return new PatientCodec.ListReader() {
+            private Patient[] block = new Patient[0];
+            private int next = 0;
+            private boolean end = false;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                if (next < block.length) {
+                    return true;
+                }
+                if (end) {
+                    return false;
+                }
+                int rows = in.readInt();
+                if (rows == 0) {
+                    end = true;
+                    return false;
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                block = readBlock(rows, new DataInputStream(new ByteArrayInputStream(bytes)));
+                next = 0;
+                return true;
+            }
+
+            @Override
+            public Patient next() throws IOException {
+                if (!hasNext()) {
+                    throw new EOFException("no more records");
+                }
+                return block[next++];
+            }
+        };
+    }
+
+    private static Patient[] readBlock(int rows, DataInputStream columns) throws IOException {
+        Patient[] block = new Patient[rows];
+        for (int i = 0; i < rows; i++) {
+            block[i] = new Patient();
+            block[i].setId(columns.readInt());
+        }
+        for (Patient patient : block) {
+            patient.setProviderNpi(columns.readInt());
+        }
+        for (Patient patient : block) {
+            patient.setDob(date(columns.readInt()));
+        }
+        for (Patient patient : block) {
+            patient.setEncounterDate(date(columns.readInt()));
+        }
+        for (Patient patient : block) {
+            patient.setPatient(readString(columns));
+        }
+        for (Patient patient : block) {
+            patient.setProvider(readString(columns));
+        }
+        for (Patient patient : block) {
+            patient.setChiefComplaint(readString(columns));
+        }
+        for (Patient patient : block) {
+            patient.setEncounterNote(readString(columns));
+        }
+        return block;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param date java.util.Date or java.sql.Date at midnight of the default time zone, like the DATE columns
+     */
+    private static int epochDay(java.util.Date date) {
+        return date == null ? NO_DATE : (int) new Date(date.getTime()).toLocalDate().toEpochDay();
+    }
+
+    private static Date date(int epochDay) {
+        return epochDay == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+}
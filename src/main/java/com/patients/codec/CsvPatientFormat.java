@@ -0,0 +1,79 @@
+package com.patients.codec;
+
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The semicolon separated format of the imported CSV files, so that an export can be read by CSVParser again.
+ * The format has no quoting: semicolons and line breaks inside a column are replaced by "," and " ",
+ * null columns are empty and dates are written as yyyy/MM/dd, one of the formats known by CSVParser.
+ */
+public final class CsvPatientFormat {
+
+    public static final String CONTENT_TYPE = "text/csv;charset=utf-8";
+
+    // header line of the imported CSV files
+    public static final String HEADER = "patient;dob;encounter date;provider;encounter note;chief complaint;provider npi";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+    private CsvPatientFormat() {
+    }
+
+    /**
+     * Start writing a CSV file, the header first
+     * @param writer the response body
+     * @return the writer of the lines
+     * @throws IOException write error
+     */
+    public static PatientCodec.ListWriter beginList(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        return new PatientCodec.ListWriter() {
+            @Override
+            public void write(Patient patient) throws IOException {
+                writer.write(toLine(patient));
+                writer.write('\n');
+            }
+
+            @Override
+            public void end() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * @param patient the patient
+     * @return the 7 columns of the patient, without the line break
+     */
+    public static String toLine(Patient patient) {
+        StringBuilder line = new StringBuilder(256);
+        column(line, patient.getPatient()).append(';');
+        date(line, patient.getDob()).append(';');
+        date(line, patient.getEncounterDate()).append(';');
+        column(line, patient.getProvider()).append(';');
+        column(line, patient.getEncounterNote()).append(';');
+        column(line, patient.getChiefComplaint()).append(';');
+        return line.append(patient.getProviderNpi()).toString();
+    }
+
+    private static StringBuilder column(StringBuilder line, String value) {
+        if (value == null) {
+            return line;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c == ';' ? ',' : c == '\n' || c == '\r' ? ' ' : c);
+        }
+        return line;
+    }
+
+    private static StringBuilder date(StringBuilder line, java.util.Date date) {
+        // at midnight of the default time zone, like the DATE columns
+        return date == null ? line : line.append(DATE_FORMAT.format(new java.sql.Date(date.getTime()).toLocalDate()));
+    }
+}
@@ -0,0 +1,166 @@
+package com.patients.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import com.patients.model.Patient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * JSON codec backed by a single Gson instance and the PatientTypeAdapter, shared by every request
+ */
+public class JsonPatientCodec implements PatientCodec {
+
+    static final JsonPatientCodec INSTANCE = new JsonPatientCodec();
+
+    private final Gson gson;
+    private final TypeAdapter<Patient> adapter;
+
+    private JsonPatientCodec() {
+        this.gson = new GsonBuilder().registerTypeAdapter(Patient.class, new PatientTypeAdapter()).create();
+        this.adapter = gson.getAdapter(Patient.class);
+    }
+
+    /**
+     * @return the shared Gson instance with the Patient adapter registered
+     */
+    public Gson gson() {
+        return gson;
+    }
+
+    @Override
+    public String contentType() {
+        return "application/json;charset=utf-8";
+    }
+
+    @Override
+    public Patient read(Reader reader) throws IOException {
+        // returns null for an empty body
+        return gson.fromJson(reader, Patient.class);
+    }
+
+    @Override
+    public void write(Patient patient, Writer writer) throws IOException {
+        JsonWriter out = gson.newJsonWriter(writer);
+        adapter.write(out, patient);
+        out.flush();
+    }
+
+    @Override
+    public ListWriter beginList(Writer writer) throws IOException {
+        JsonWriter out = gson.newJsonWriter(writer);
+        out.beginArray();
+        return new ListWriter() {
+            @Override
+            public void write(Patient patient) throws IOException {
+                adapter.write(out, patient);
+            }
+
+            @Override
+            public void end() throws IOException {
+                out.endArray();
+                out.flush();
+            }
+        };
+    }
+
+    @Override
+    public ListWriter beginLines(Writer writer) {
+        return new ListWriter() {
+            @Override
+            public void write(Patient patient) throws IOException {
+                // a JsonWriter without indentation never writes a newline
+                JsonWriter out = gson.newJsonWriter(writer);
+                adapter.write(out, patient);
+                out.flush();
+                writer.write('\n');
+            }
+
+            @Override
+            public void end() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    @Override
+    public ListReader readList(Reader reader) throws IOException {
+        JsonReader in = gson.newJsonReader(reader);
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            throw new MalformedJsonException("Expected an array but was " + in.peek() + " at path " + in.getPath());
+        }
+        in.beginArray();
+        return new ListReader() {
+            private boolean end = false;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                if (end) {
+                    return false;
+                }
+                if (in.hasNext()) {
+                    return true;
+                }
+                in.endArray();
+                if (in.peek() != JsonToken.END_DOCUMENT) {
+                    throw new MalformedJsonException("Expected the end of the body at path " + in.getPath());
+                }
+                end = true;
+                return false;
+            }
+
+            @Override
+            public Patient next() throws IOException {
+                // the element is parsed to a tree first, so that an invalid field does not leave the reader in the middle of it
+                JsonElement element;
+                try {
+                    element = JsonParser.parseReader(in);
+                } catch (JsonParseException e) {
+                    throw new MalformedJsonException(e.getMessage(), e);
+                }
+                return adapter.fromJsonTree(element);
+            }
+        };
+    }
+
+    @Override
+    public ListReader readLines(Reader reader) {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        return new ListReader() {
+            private String line;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                while (line == null || line.isBlank()) {
+                    line = lines.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Patient next() throws IOException {
+                if (!hasNext()) {
+                    throw new IllegalStateException("no more lines");
+                }
+                String json = line;
+                line = null;
+                // every line is a document on its own, a syntax error only invalidates its line
+                return adapter.fromJsonTree(JsonParser.parseString(json));
+            }
+        };
+    }
+}
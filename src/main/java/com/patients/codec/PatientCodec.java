@@ -0,0 +1,107 @@
+package com.patients.codec;
+
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Reads and writes Patient objects in a wire format. Implementations are thread safe and shared across requests.
+ */
+public interface PatientCodec {
+
+    /**
+     * @return the JSON codec
+     */
+    static PatientCodec json() {
+        return JsonPatientCodec.INSTANCE;
+    }
+
+    /**
+     * @return the Content-Type of the wire format, including the charset
+     */
+    String contentType();
+
+    /**
+     * @param reader the request body
+     * @return the patient, null for an empty body
+     * @throws IOException read error
+     * @throws RuntimeException the body is not valid in this format
+     */
+    Patient read(Reader reader) throws IOException;
+
+    /**
+     * @param patient the patient, may be null
+     * @param writer the response body
+     * @throws IOException write error
+     */
+    void write(Patient patient, Writer writer) throws IOException;
+
+    /**
+     * Start writing a list of patients, one element at a time
+     * @param writer the response body
+     * @return the writer of the list elements
+     * @throws IOException write error
+     */
+    ListWriter beginList(Writer writer) throws IOException;
+
+    /**
+     * Start writing a stream of patients, one per line (e.g. NDJSON)
+     * @param writer the response body
+     * @return the writer of the lines
+     * @throws IOException write error
+     */
+    ListWriter beginLines(Writer writer) throws IOException;
+
+    /**
+     * Start reading a list of patients, e.g. a JSON array, one element at a time
+     * @param reader the request body
+     * @return the reader of the list elements
+     * @throws IOException read error, or the body is not a list
+     */
+    ListReader readList(Reader reader) throws IOException;
+
+    /**
+     * Start reading a stream of patients, one per line (e.g. NDJSON), blank lines are skipped
+     * @param reader the request body
+     * @return the reader of the lines
+     * @throws IOException read error
+     */
+    ListReader readLines(Reader reader) throws IOException;
+
+    /**
+     * Reads the elements of a list as they come, so that the list is never held in memory
+     */
+    interface ListReader {
+        /**
+         * @return true if there is a next element
+         * @throws IOException read error, or the list is malformed and cannot be read any further
+         */
+        boolean hasNext() throws IOException;
+
+        /**
+         * @return the next element, null for a null element
+         * @throws IOException read error, or the list is malformed and cannot be read any further
+         * @throws RuntimeException the element is not a valid patient, the next elements can still be read
+         */
+        Patient next() throws IOException;
+    }
+
+    /**
+     * Writes the elements of a list as they come, so that the list is never held in memory
+     */
+    interface ListWriter {
+        /**
+         * @param patient the next element
+         * @throws IOException write error
+         */
+        void write(Patient patient) throws IOException;
+
+        /**
+         * End the list and flush it
+         * @throws IOException write error
+         */
+        void end() throws IOException;
+    }
+}
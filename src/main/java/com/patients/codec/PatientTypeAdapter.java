@@ -0,0 +1,162 @@
+package com.patients.codec;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.patients.DateParser;
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Hand written Gson TypeAdapter for Patient: fields are read and written directly instead of through reflection.
+ * Dates are ISO-8601 calendar dates (2000-01-02). For compatibility, dates in the known CSV formats are also accepted,
+ * which includes the "Jan 2, 2000" format older versions of the server returned. Null fields are not written.
+ */
+public class PatientTypeAdapter extends TypeAdapter<Patient> {
+
+    private static final String ID = "id";
+    private static final String PATIENT = "patient";
+    private static final String DOB = "dob";
+    private static final String ENCOUNTER_DATE = "encounterDate";
+    private static final String PROVIDER = "provider";
+    private static final String ENCOUNTER_NOTE = "encounterNote";
+    private static final String CHIEF_COMPLAINT = "chiefComplaint";
+    private static final String PROVIDER_NPI = "providerNpi";
+
+    @Override
+    public void write(JsonWriter out, Patient patient) throws IOException {
+        if (patient == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        if (patient.getId() != null) {
+            out.name(ID).value(patient.getId());
+        }
+        if (patient.getPatient() != null) {
+            out.name(PATIENT).value(patient.getPatient());
+        }
+        if (patient.getDob() != null) {
+            out.name(DOB).value(formatDate(patient.getDob()));
+        }
+        if (patient.getEncounterDate() != null) {
+            out.name(ENCOUNTER_DATE).value(formatDate(patient.getEncounterDate()));
+        }
+        if (patient.getProvider() != null) {
+            out.name(PROVIDER).value(patient.getProvider());
+        }
+        if (patient.getEncounterNote() != null) {
+            out.name(ENCOUNTER_NOTE).value(patient.getEncounterNote());
+        }
+        if (patient.getChiefComplaint() != null) {
+            out.name(CHIEF_COMPLAINT).value(patient.getChiefComplaint());
+        }
+        if (patient.getProviderNpi() != null) {
+            out.name(PROVIDER_NPI).value(patient.getProviderNpi());
+        }
+        out.endObject();
+    }
+
+    @Override
+    public Patient read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Patient patient = new Patient();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            // null values leave the field null
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case ID:
+                    patient.setId(readInt(in));
+                    break;
+                case PATIENT:
+                    patient.setPatient(readString(in));
+                    break;
+                case DOB:
+                    patient.setDob(parseDate(readString(in), in));
+                    break;
+                case ENCOUNTER_DATE:
+                    patient.setEncounterDate(parseDate(readString(in), in));
+                    break;
+                case PROVIDER:
+                    patient.setProvider(readString(in));
+                    break;
+                case ENCOUNTER_NOTE:
+                    patient.setEncounterNote(readString(in));
+                    break;
+                case CHIEF_COMPLAINT:
+                    patient.setChiefComplaint(readString(in));
+                    break;
+                case PROVIDER_NPI:
+                    patient.setProviderNpi(readInt(in));
+                    break;
+                default:
+                    // unknown fields are ignored
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return patient;
+    }
+
+    /**
+     * @param date java.util.Date or java.sql.Date at midnight of the default time zone
+     * @return the ISO-8601 calendar date, e.g. 2000-01-02
+     */
+    static String formatDate(java.util.Date date) {
+        Date sqlDate = date instanceof Date ? (Date) date : new Date(date.getTime());
+        return sqlDate.toLocalDate().toString();
+    }
+
+    /**
+     * @return java.sql.Date at midnight of the default time zone
+     */
+    private static Date parseDate(String value, JsonReader in) {
+        // an ISO date time is cut to its date
+        String date = value.length() > 10 && value.charAt(10) == 'T' ? value.substring(0, 10) : value;
+        try {
+            return Date.valueOf(LocalDate.parse(date));
+        } catch (DateTimeParseException e) {
+            // not ISO-8601, try the known CSV formats
+            Date parsed = DateParser.parse(value);
+            if (parsed == null) {
+                throw new JsonSyntaxException("Failed parsing '" + value + "' as date; at path " + in.getPreviousPath());
+            }
+            return parsed;
+        }
+    }
+
+    /**
+     * Same as the default Gson Integer adapter, numbers in strings are accepted
+     */
+    private static int readInt(JsonReader in) throws IOException {
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Same as the default Gson String adapter, numbers and booleans are accepted
+     */
+    private static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+}
@@ -0,0 +1,366 @@
+package com.patients.database;
+
+import com.patients.ingest.DuplicateFilter;
+import com.patients.metrics.MetricsRegistry;
+import com.patients.model.Patient;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batched inserts of Patient objects. Rows are buffered and sent with addBatch/executeBatch.
+ * With rewriteBatchedStatements=true (see Database) MySQL Connector/J rewrites a batch into multi-row inserts.
+ * There are two modes:
+ * 1. Bulk loader (constructor): one commit per batch. A batch failing for a transient reason (deadlock, lock wait timeout)
+ *    is rolled back and retried as a whole on the same connection, so a batch is either fully committed or not at all. With a DuplicateFilter, the rows already imported are dropped
+ *    from the batch and the content hash is inserted, so that a file can be imported again.
+ * 2. Transactional (inTransaction()): all batches belong to one transaction that is committed by commit(),
+ *    and rolled back by close() if it is not. The generated ids are collected.
+ */
+public class BatchInserter implements AutoCloseable {
+
+    private final static Logger LOGGER = LogManager.getLogger(BatchInserter.class);
+
+    // process wide counters of the CSV loader and of POST /patients/batch, exported by /metrics or -DmetricsFile
+    private static final LongAdder ROWS_TOTAL = MetricsRegistry.shared().counter("patients_batch_rows_inserted_total", "Rows sent in JDBC batches");
+    private static final LongAdder BATCHES_TOTAL = MetricsRegistry.shared().counter("patients_batch_batches_total", "JDBC batches sent");
+    // MySQL error codes of the failures worth a retry
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int ER_LOCK_DEADLOCK = 1213;
+
+    private static final LongAdder RETRIES_TOTAL = MetricsRegistry.shared().counter("patients_batch_retries_total", "Failed JDBC batches retried");
+
+    private static final ProviderDictionary DICTIONARY = ProviderDictionary.shared();
+
+    private final Connection conn;
+    private final int batchSize;
+    private final int maxRetries;
+    private final boolean autoCommit;
+    private final PreparedStatement insert;
+
+    // true for one commit per batch, false for a single transaction
+    private final boolean commitPerBatch;
+
+    // generated ids in insert order, null when they are not collected
+    private final List<Integer> generatedKeys;
+
+    // rows of the current batch, bound when the batch is sent and kept to replay the batch on retry
+    private final List<Patient> pending;
+
+    // drops the rows already imported, bulk loader mode only; null to insert every row
+    private final DuplicateFilter duplicateFilter;
+
+    // provider names new or changed by the rows of the current batch, written with the batch
+    private final Map<Integer, String> providers = new LinkedHashMap<>();
+
+    // transactional mode: provider names written in the transaction, put in the dictionary once it is committed
+    private final Map<Integer, String> written = new LinkedHashMap<>();
+
+    private long rowsInserted = 0;
+    private long batches = 0;
+    private boolean committed = false;
+
+    /**
+     * Switches the connection to manual commit and prepares the insert statement once for all batches.
+     * Every batch is committed.
+     * @param conn java.sql.Connection, the JDBC connection. It is not closed by this class.
+     * @param batchSize number of rows per batch/commit
+     * @param maxRetries number of retries of a failed batch before giving up
+     * @throws SQLException exception during statement preparation
+     */
+    public BatchInserter(Connection conn, int batchSize, int maxRetries) throws SQLException {
+        this(conn, batchSize, maxRetries, true, null);
+    }
+
+    /**
+     * Bulk loader that skips the rows already imported, the table needs the content_hash column (see patients.sql)
+     * @param conn java.sql.Connection, the JDBC connection. It is not closed by this class.
+     * @param batchSize number of rows per batch/commit
+     * @param maxRetries number of retries of a failed batch before giving up
+     * @param duplicateFilter the hashes of the rows already imported, shared by the inserters of one import
+     * @throws SQLException exception during statement preparation
+     */
+    public BatchInserter(Connection conn, int batchSize, int maxRetries, DuplicateFilter duplicateFilter) throws SQLException {
+        this(conn, batchSize, maxRetries, true, duplicateFilter);
+    }
+
+    private BatchInserter(Connection conn, int batchSize, int maxRetries, boolean commitPerBatch, DuplicateFilter duplicateFilter) throws SQLException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries cannot be less than 0");
+        }
+        this.conn = conn;
+        this.batchSize = batchSize;
+        this.maxRetries = maxRetries;
+        this.commitPerBatch = commitPerBatch;
+        this.duplicateFilter = duplicateFilter;
+        this.generatedKeys = commitPerBatch ? null : new ArrayList<>();
+        this.pending = new ArrayList<>(batchSize);
+        this.autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        if (!commitPerBatch) {
+            this.insert = conn.prepareStatement(Patient.INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+        } else {
+            this.insert = conn.prepareStatement(duplicateFilter == null ? Patient.INSERT_SQL : Patient.INGEST_SQL);
+        }
+    }
+
+    /**
+     * Batched inserts in a single transaction: nothing is committed until commit(), a failed batch is not retried
+     * and the generated ids are collected.
+     * @param conn java.sql.Connection, the JDBC connection. It is not closed by this class.
+     * @param batchSize number of rows per batch
+     * @return the inserter
+     * @throws SQLException exception during statement preparation
+     */
+    public static BatchInserter inTransaction(Connection conn, int batchSize) throws SQLException {
+        return new BatchInserter(conn, batchSize, 0, false, null);
+    }
+
+    /**
+     * Add a row to the current batch, the batch is sent (and committed in bulk loader mode) once it is full
+     * @param patient the row to insert
+     * @throws SQLException the batch still fails after all retries
+     */
+    public void add(Patient patient) throws SQLException {
+        // the name is stored once per NPI, a known name costs a map lookup
+        if (DICTIONARY.changes(patient.getProviderNpi(), patient.getProvider())) {
+            providers.put(patient.getProviderNpi(), patient.getProvider());
+        }
+        pending.add(patient);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the current batch and, in bulk loader mode, commit it.
+     * On a transient failure in bulk loader mode (see isTransient), the transaction is rolled back and the batch is replayed.
+     * @throws SQLException the batch still fails after all retries
+     */
+    public void flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!commitPerBatch) {
+            try {
+                writeProviders();
+                bind(pending);
+                insert.executeBatch();
+                collectKeys();
+                written.putAll(providers);
+            } finally {
+                // the caller rolls back the whole transaction on failure
+                pending.clear();
+                providers.clear();
+                insert.clearBatch();
+            }
+            ROWS_TOTAL.add(generatedKeys.size() - rowsInserted);
+            BATCHES_TOTAL.increment();
+            rowsInserted = generatedKeys.size();
+            batches++;
+            return;
+        }
+        // the rows already imported are not sent
+        List<Patient> rows = duplicateFilter == null ? pending : duplicateFilter.retainNew(conn, pending);
+        for (int attempt = 0; !rows.isEmpty(); attempt++) {
+            try {
+                // the provider names of the batch are committed with its rows, and replayed with them
+                writeProviders();
+                bind(rows);
+                insert.executeBatch();
+                conn.commit();
+                putProviders(providers);
+                break;
+            } catch (SQLException e) {
+                rollback();
+                insert.clearBatch();
+                if (attempt >= maxRetries || !isTransient(e)) {
+                    // give up the batch, it has been rolled back; a bad row fails the same way on every attempt
+                    pending.clear();
+                    providers.clear();
+                    throw e;
+                }
+                LOGGER.log(Level.WARN, "batch of " + rows.size() + " rows failed, retry " + (attempt + 1) + " of " + maxRetries, e);
+                RETRIES_TOTAL.increment();
+                backoff(attempt);
+                // the rows of the failed batch are replayed
+            }
+        }
+        if (!rows.isEmpty()) {
+            ROWS_TOTAL.add(rows.size());
+            BATCHES_TOTAL.increment();
+        }
+        rowsInserted += rows.size();
+        batches++;
+        pending.clear();
+        // only duplicates: their names were imported with them
+        providers.clear();
+    }
+
+    /**
+     * Transactional mode only: send the last batch and commit the transaction
+     * @throws SQLException exception during the last batch or the commit
+     */
+    public void commit() throws SQLException {
+        if (commitPerBatch) {
+            throw new IllegalStateException("every batch is already committed");
+        }
+        flush();
+        conn.commit();
+        committed = true;
+        putProviders(written);
+    }
+
+    /**
+     * @return number of inserted rows; committed rows in bulk loader mode, without the ones dropped by the DuplicateFilter
+     */
+    public long getRowsInserted() {
+        return rowsInserted;
+    }
+
+    /**
+     * @return number of flushed batches, including the ones only made of duplicates in bulk loader mode
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Transactional mode only
+     * @return the generated ids of the inserted rows, in insert order
+     */
+    public List<Integer> getGeneratedKeys() {
+        if (generatedKeys == null) {
+            throw new IllegalStateException("generated keys are only collected in a transaction");
+        }
+        return generatedKeys;
+    }
+
+    /**
+     * Bulk loader mode: flush the last (partial) batch. Transactional mode: roll back if commit() was not called.
+     * Then close the statement and restore the auto commit mode of the connection.
+     * @throws SQLException exception during the last flush or the close
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (commitPerBatch) {
+                flush();
+            } else if (!committed) {
+                // the provider names written in the transaction are rolled back with it, the dictionary never had them
+                pending.clear();
+                rollback();
+            }
+        } finally {
+            insert.close();
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Write the provider names of the current batch, in its transaction
+     */
+    private void writeProviders() throws SQLException {
+        for (Map.Entry<Integer, String> provider : providers.entrySet()) {
+            DICTIONARY.write(conn, provider.getKey(), provider.getValue());
+        }
+    }
+
+    /**
+     * Put committed provider names in the dictionary
+     */
+    private static void putProviders(Map<Integer, String> committed) {
+        for (Map.Entry<Integer, String> provider : committed.entrySet()) {
+            DICTIONARY.put(provider.getKey(), provider.getValue());
+        }
+        committed.clear();
+    }
+
+    private void bind(List<Patient> rows) throws SQLException {
+        for (Patient patient : rows) {
+            if (duplicateFilter == null) {
+                patient.bindInsert(insert);
+            } else {
+                patient.bindIngest(insert);
+            }
+            insert.addBatch();
+        }
+    }
+
+    /**
+     * Read the generated ids of the sent batch
+     */
+    private void collectKeys() throws SQLException {
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            while (keys.next()) {
+                generatedKeys.add(keys.getInt(1));
+            }
+        }
+        if (generatedKeys.size() != rowsInserted + pending.size()) {
+            throw new SQLException("expected " + pending.size() + " generated keys for the batch");
+        }
+    }
+
+    /**
+     * @param e failure of a batch
+     * @return true if the same batch may succeed later on the same connection: a deadlock or a lock wait timeout.
+     * Data errors such as a too long value or a constraint violation are not, nor a lost connection, which the batch
+     * and its prepared statement cannot be replayed on.
+     */
+    static boolean isTransient(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransactionRollbackException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String state = sqlException.getSQLState();
+                // 40001 serialization failure (deadlock)
+                if ("40001".equals(state)) {
+                    return true;
+                }
+                switch (sqlException.getErrorCode()) {
+                    case ER_LOCK_WAIT_TIMEOUT:
+                    case ER_LOCK_DEADLOCK:
+                        return true;
+                    default:
+                        break;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void rollback() {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            LOGGER.log(Level.ERROR, "failed to rollback batch: ", e);
+        }
+    }
+
+    private static void backoff(int attempt) throws SQLException {
+        try {
+            // 100ms, 200ms, 400ms... capped at 5s
+            Thread.sleep(Math.min(5000L, 100L << Math.min(attempt, 6)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting to retry a batch", e);
+        }
+    }
+}
@@ -1,13 +1,24 @@
 package com.patients.database;
 
+import com.patients.metrics.MetricsRegistry;
+import com.patients.metrics.RequestMetrics;
+import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.Strings;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Properties;
+import java.util.function.ToIntFunction;
 
 /**
  * This class uses  <a href="https://github.com/brettwooldridge/HikariCP">HikariCP</a> as the database connection pool
@@ -22,16 +33,83 @@ public class Database {
     public static final String DB_USERNAME = "dbUsername";
     // jvm option -DdbPassword
     public static final String DB_PASSWORD = "dbPassword";
+    // jvm option -DdbPoolSize, maximum number of pooled connections, same as -Dhikari.maximumPoolSize
+    public static final String DB_POOL_SIZE = "dbPoolSize";
+    // jvm option -DdbProfile, the bundled pool and driver settings: server (default) or loader
+    public static final String DB_PROFILE = "dbProfile";
+    // jvm option -DdbConfig, a properties file of pool and driver settings, applied over the profile
+    public static final String DB_CONFIG = "dbConfig";
+    // prefix of the jvm options of single settings, applied last, e.g. -Dhikari.maximumPoolSize=20
+    public static final String HIKARI_PREFIX = "hikari.";
+
+    // profile tuned for the web server: many short statements, server side prepared statement cache
+    public static final String SERVER_PROFILE = "server";
+    // profile tuned for the CSV bulk loader: few long transactions of multi-row inserts
+    public static final String LOADER_PROFILE = "loader";
 
     // HikariCP DataSource
     private final static HikariDataSource ds;
 
     // Using static block for singleton
     static {
-        ds = new HikariDataSource(); // new the DS object
-        ds.setJdbcUrl(System.getProperty(DB_URL)); // url
-        ds.setUsername(System.getProperty(DB_USERNAME)); // username
-        ds.setPassword(System.getProperty(DB_PASSWORD)); // password
+        String profile = System.getProperty(DB_PROFILE, SERVER_PROFILE);
+        // HikariCP settings, dataSource.* are MySQL Connector/J properties
+        HikariConfig config = new HikariConfig(loadConfig(profile, System.getProperty(DB_CONFIG), System.getProperties()));
+        config.setJdbcUrl(System.getProperty(DB_URL)); // url
+        config.setUsername(System.getProperty(DB_USERNAME)); // username
+        config.setPassword(System.getProperty(DB_PASSWORD)); // password
+        ds = new HikariDataSource(); // new the DS object, the pool starts with the first connection
+        config.copyStateTo(ds);
+        LOGGER.log(Level.INFO, "database profile " + profile + ", pool size " + ds.getMaximumPoolSize());
+        // pool gauges, 0 until the pool starts
+        poolGauge("patients_db_pool_active_connections", "Connections in use", HikariPoolMXBean::getActiveConnections);
+        poolGauge("patients_db_pool_idle_connections", "Idle connections", HikariPoolMXBean::getIdleConnections);
+        poolGauge("patients_db_pool_pending_threads", "Threads waiting for a connection", HikariPoolMXBean::getThreadsAwaitingConnection);
+        poolGauge("patients_db_pool_total_connections", "Open connections", HikariPoolMXBean::getTotalConnections);
+        MetricsRegistry.shared().gauge("patients_db_pool_max_connections", "Maximum pool size", ds::getMaximumPoolSize);
+    }
+
+    private static void poolGauge(String name, String help, ToIntFunction<HikariPoolMXBean> value) {
+        MetricsRegistry.shared().gauge(name, help, () -> {
+            HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+            return pool == null ? 0 : value.applyAsInt(pool);
+        });
+    }
+
+    /**
+     * Merge the pool and driver settings, later sources override earlier ones:
+     * the bundled profile db-[profile].properties, the config file, -DdbPoolSize and the -Dhikari.* options.
+     * @param profile name of the bundled profile
+     * @param configFile path of the properties file, null for none
+     * @param systemProperties the jvm options
+     * @return HikariCP properties
+     */
+    static Properties loadConfig(String profile, String configFile, Properties systemProperties) {
+        Properties props = new Properties();
+        try (InputStream in = Database.class.getResourceAsStream("/db-" + profile + ".properties")) {
+            if (in == null) {
+                throw new IllegalArgumentException("unknown database profile: " + profile);
+            }
+            props.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (configFile != null) {
+            try (InputStream in = Files.newInputStream(Path.of(configFile))) {
+                props.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read " + configFile, e);
+            }
+        }
+        if (systemProperties.getProperty(DB_POOL_SIZE) != null) {
+            props.setProperty("maximumPoolSize", systemProperties.getProperty(DB_POOL_SIZE));
+        }
+        for (String name : systemProperties.stringPropertyNames()) {
+            if (name.startsWith(HIKARI_PREFIX)) {
+                props.setProperty(name.substring(HIKARI_PREFIX.length()), systemProperties.getProperty(name));
+            }
+        }
+        return props;
     }
 
     /**
@@ -40,7 +118,19 @@ public class Database {
      * @throws SQLException any JDBC excpetion
      */
     public static Connection getConnection() throws SQLException {
-        return ds.getConnection();
+        long start = System.nanoTime();
+        try {
+            return ds.getConnection();
+        } finally {
+            RequestMetrics.recordConnectionWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the maximum number of connections of the pool
+     */
+    public static int getMaximumPoolSize() {
+        return ds.getMaximumPoolSize();
     }
 
     /**
@@ -0,0 +1,51 @@
+package com.patients.database;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor for blocking JDBC work, so that slow database calls do not hold the threads of the web server.
+ * There is one thread per pooled connection: more threads would only wait for a connection.
+ * When the queue is full, execute() throws RejectedExecutionException.
+ */
+public final class JdbcExecutor {
+
+    // jvm option -DjdbcThreads, number of threads, the maximum pool size by default
+    public static final String JDBC_THREADS = "jdbcThreads";
+    // jvm option -DjdbcQueueCapacity, number of tasks waiting for a thread
+    public static final String JDBC_QUEUE_CAPACITY = "jdbcQueueCapacity";
+
+    private JdbcExecutor() {
+    }
+
+    // created on first use
+    private static final class Holder {
+        private static final ExecutorService EXECUTOR = create(
+                Integer.parseInt(System.getProperty(JDBC_THREADS, String.valueOf(Database.getMaximumPoolSize()))),
+                Integer.parseInt(System.getProperty(JDBC_QUEUE_CAPACITY, "1000")));
+    }
+
+    /**
+     * @return the executor shared by the servlets
+     */
+    public static ExecutorService shared() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     * @param threads number of threads
+     * @param queueCapacity number of tasks waiting for a thread
+     * @return a fixed size executor with a bounded queue and daemon threads named jdbc-N
+     */
+    static ExecutorService create(int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), task -> {
+            Thread thread = new Thread(task, "jdbc-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,254 @@
+package com.patients.database;
+
+import com.patients.store.StringInterner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * Dictionaries of the two low cardinality text columns: the provider name of each NPI, stored once in the providers table
+ * instead of on every patient row, and the chief complaints, interned so that equal values share one String.
+ * The shared dictionary is backed by the providers table and works on the connection of its caller, so it never waits for
+ * a second connection of the pool: the table is loaded by the first refresh(), and after an NPI was not found refresh()
+ * reloads the table (at most once per second) to see the names written by the CSV loader or by other servers.
+ * A name is written with write() in the transaction of the patient row, and put() in process once it is committed.
+ * No SQL runs under a lock of the dictionary. A dictionary created with the constructor lives in process only.
+ */
+public final class ProviderDictionary {
+
+    private static final String SELECT_SQL = "select npi, name from providers";
+
+    private static final String SELECT_NPI_SQL = "select name from providers where npi = ?";
+
+    // a new name renames the provider of every patient with the NPI
+    private static final String UPSERT_SQL = "insert into providers (npi, name) values (?, ?) on duplicate key update name = values(name)";
+
+    // distinct chief complaints kept by the interner
+    private static final int MAX_CHIEF_COMPLAINTS = 100_000;
+
+    private static final long RELOAD_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final ProviderDictionary SHARED = new ProviderDictionary(true);
+
+    // true if backed by the providers table
+    private final boolean persistent;
+
+    // canonical name of each NPI
+    private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+
+    // NPIs looked up without a name: a blank provider is legal and has no row in the providers table
+    private final Set<Integer> unnamed = ConcurrentHashMap.newKeySet();
+
+    // NPIs not found by get() since the last load, the ones the next load does not find either are unnamed
+    private final Set<Integer> missing = ConcurrentHashMap.newKeySet();
+
+    private final StringInterner chiefComplaints = new StringInterner(MAX_CHIEF_COMPLAINTS);
+
+    // receive the NPI of every name changed in process
+    private final List<IntConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean loaded;
+    // an NPI was not found since the last load
+    private volatile boolean missed;
+    // System.nanoTime() of the last load of the providers table, guarded by this
+    private long loadedAt;
+
+    /**
+     * A dictionary in process only, e.g. for the memory store
+     */
+    public ProviderDictionary() {
+        this(false);
+    }
+
+    private ProviderDictionary(boolean persistent) {
+        this.persistent = persistent;
+        this.loaded = !persistent;
+    }
+
+    /**
+     * @return the dictionary backed by the providers table
+     */
+    public static ProviderDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param listener receives the NPI of every name changed in process, the patients of the NPI changed with it
+     */
+    public void addListener(IntConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Load the providers table if it was never loaded, or reload it if an NPI was not found since the last load
+     * (at most once per second). Call it before a query whose rows are resolved with get().
+     * @param conn a connection without an open streaming result set
+     * @throws SQLException exception while reading the providers table
+     */
+    public void refresh(Connection conn) throws SQLException {
+        if (loaded && !missed) {
+            return;
+        }
+        if (loaded) {
+            synchronized (this) {
+                if (System.nanoTime() - loadedAt < RELOAD_INTERVAL_NANOS) {
+                    return;
+                }
+                // this caller reloads, the others go on with the names in process
+                loadedAt = System.nanoTime();
+                missed = false;
+            }
+        }
+        load(conn);
+    }
+
+    /**
+     * @param npi provider npi, may be null
+     * @return the name of the NPI, null if it has none or if it is not loaded yet; no database access
+     */
+    public String get(Integer npi) {
+        if (npi == null) {
+            return null;
+        }
+        String name = names.get(npi);
+        if (name == null && persistent && !unnamed.contains(npi)) {
+            missing.add(npi);
+            missed = true;
+        }
+        return name;
+    }
+
+    /**
+     * Read the name of one NPI unknown in process, e.g. written by another process since the last load.
+     * An NPI without a name is remembered as such and not read again.
+     * @param conn a connection without an open streaming result set
+     * @param npi provider npi, may be null
+     * @throws SQLException exception while reading the providers table
+     */
+    public void lookup(Connection conn, Integer npi) throws SQLException {
+        if (npi == null || !persistent || names.containsKey(npi) || unnamed.contains(npi)) {
+            return;
+        }
+        try (PreparedStatement select = conn.prepareStatement(SELECT_NPI_SQL)) {
+            select.setInt(1, npi);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    put(npi, rs.getString(1));
+                } else {
+                    unnamed.add(npi);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param npi provider npi, may be null
+     * @param name provider name, may be null: a record without a name keeps the name of its NPI
+     * @return true if the name is new or differs from the name of the NPI in process, it has to be written
+     */
+    public boolean changes(Integer npi, String name) {
+        return npi != null && name != null && !name.equals(names.get(npi));
+    }
+
+    /**
+     * Write the name of an NPI in the transaction of the connection, every patient with the NPI takes it once committed;
+     * the name in process is only changed by put() after the commit
+     * @param conn connection of the write, in the transaction of the patient rows
+     * @param npi provider npi
+     * @param name provider name
+     * @throws SQLException exception while writing the providers table
+     */
+    public void write(Connection conn, int npi, String name) throws SQLException {
+        if (!persistent) {
+            return;
+        }
+        try (PreparedStatement upsert = conn.prepareStatement(UPSERT_SQL)) {
+            upsert.setInt(1, npi);
+            upsert.setString(2, name);
+            upsert.executeUpdate();
+        }
+    }
+
+    /**
+     * Set the name of an NPI in process, after it is committed with write(); the listeners are told when it changed
+     * @param npi provider npi, null is ignored
+     * @param name provider name, null is ignored
+     */
+    public void put(Integer npi, String name) {
+        // keep the instance in process when the name is unchanged
+        if (npi == null || name == null || name.equals(names.get(npi))) {
+            return;
+        }
+        names.put(npi, name);
+        unnamed.remove(npi);
+        for (IntConsumer listener : listeners) {
+            listener.accept(npi);
+        }
+    }
+
+    /**
+     * @param npi provider npi, may be null
+     * @param name a provider name, e.g. from a CSV line
+     * @return the canonical instance if it is the known name of the NPI, else the name itself; no database access
+     */
+    public String canonicalName(Integer npi, String name) {
+        String known = npi == null ? null : names.get(npi);
+        return known != null && known.equals(name) ? known : name;
+    }
+
+    /**
+     * @param chiefComplaint a chief complaint, may be null
+     * @return the canonical instance equal to it
+     */
+    public String internChiefComplaint(String chiefComplaint) {
+        return chiefComplaints.intern(chiefComplaint);
+    }
+
+    /**
+     * @return number of NPIs with a name
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Read the providers table, the names read replace the ones in process
+     */
+    private void load(Connection conn) throws SQLException {
+        // taken before the read: an NPI missed later may have been written after it
+        List<Integer> looked = new ArrayList<>(missing);
+        Map<Integer, String> read = new HashMap<>();
+        try (PreparedStatement select = conn.prepareStatement(SELECT_SQL);
+             ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                read.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        for (Map.Entry<Integer, String> entry : read.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+        // the missed NPIs without a row have no name, they do not make the next refresh() reload the table
+        for (Integer npi : looked) {
+            if (!read.containsKey(npi)) {
+                unnamed.add(npi);
+            }
+        }
+        missing.removeAll(looked);
+        synchronized (this) {
+            if (!loaded) {
+                loadedAt = System.nanoTime();
+                loaded = true;
+            }
+        }
+    }
+}
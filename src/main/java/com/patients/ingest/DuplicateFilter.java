@@ -0,0 +1,186 @@
+package com.patients.ingest;
+
+import com.patients.metrics.MetricsRegistry;
+import com.patients.model.Patient;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops the CSV lines already imported, by the content hash of their 7 columns (see MappedCSVReader.setContentHash()).
+ * A Bloom filter of the imported hashes answers first: a line it has never seen is new and costs nothing more.
+ * The hashes it may have seen are looked up in the unique key of content_hash, with one query per batch (per 1000 hashes).
+ * The filter is thread safe, the writers of the ingest pipeline share it.
+ * Lines that slip through, e.g. twice in the same batch, are ignored by the unique key (see Patient.INGEST_SQL).
+ */
+public class DuplicateFilter {
+
+    private final static Logger LOGGER = LogManager.getLogger(DuplicateFilter.class);
+
+    // false positive rate of the Bloom filter, each one costs a hash in the lookup query
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    // content hashes per lookup query, far below the 65535 placeholders of a prepared statement
+    private static final int LOOKUP_CHUNK = 1000;
+
+    private static final LongAdder DUPLICATES_TOTAL = MetricsRegistry.shared().counter("patients_ingest_duplicates_skipped_total", "CSV lines skipped, already imported");
+
+    private final AtomicLongArray bits;
+    private final long size;
+    private final int hashes;
+
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * @param expected number of hashes the filter is sized for, more are accepted at a higher false positive rate
+     */
+    public DuplicateFilter(long expected) {
+        long n = Math.max(1, expected);
+        // optimal size and number of hash functions of a Bloom filter
+        long words = Math.min(Integer.MAX_VALUE, (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)) / 64));
+        this.bits = new AtomicLongArray((int) Math.max(1, words));
+        this.size = bits.length() * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) size / n * Math.log(2)));
+    }
+
+    /**
+     * Create a filter holding the hashes of the table
+     * @param conn java.sql.Connection, the JDBC connection
+     * @param expectedNew number of lines about to be imported
+     * @return the filter, null if the table has no content_hash column (see patients.sql)
+     * @throws SQLException exception while reading the hashes
+     */
+    public static DuplicateFilter load(Connection conn, long expectedNew) throws SQLException {
+        try (ResultSet columns = conn.getMetaData().getColumns(conn.getCatalog(), null, "patients", "content_hash")) {
+            if (!columns.next()) {
+                LOGGER.log(Level.WARN, "patients has no content_hash column, the lines already imported are not skipped; see patients.sql");
+                return null;
+            }
+        }
+        long existing;
+        try (Statement count = conn.createStatement();
+             ResultSet rs = count.executeQuery("select count(*) from patients where content_hash is not null")) {
+            rs.next();
+            existing = rs.getLong(1);
+        }
+        DuplicateFilter filter = new DuplicateFilter(existing + expectedNew);
+        // a scan of the unique key, streamed row by row
+        try (Statement select = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            select.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = select.executeQuery("select content_hash from patients where content_hash is not null")) {
+                while (rs.next()) {
+                    filter.put(rs.getBytes(1));
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "loaded " + existing + " imported line hashes");
+        return filter;
+    }
+
+    /**
+     * @param hash a content hash
+     * @return false if the hash was never put, true if it probably was
+     */
+    public boolean mightContain(byte[] hash) {
+        long h1 = ByteBuffer.wrap(hash).getLong(0);
+        long h2 = ByteBuffer.wrap(hash).getLong(8) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param hash a content hash, of CONTENT_HASH_LENGTH bytes
+     */
+    public void put(byte[] hash) {
+        long h1 = ByteBuffer.wrap(hash).getLong(0);
+        long h2 = ByteBuffer.wrap(hash).getLong(8) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long value;
+            while (((value = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, value, value | mask)) {
+                // lost the race with another bit of the same word
+            }
+        }
+    }
+
+    /**
+     * Remove the rows already in the table from a batch, and remember the others
+     * @param conn java.sql.Connection, the JDBC connection
+     * @param rows a batch of patients with their content hash
+     * @return the rows to insert, in order
+     * @throws SQLException exception during the lookup
+     */
+    public List<Patient> retainNew(Connection conn, List<Patient> rows) throws SQLException {
+        List<byte[]> candidates = new ArrayList<>();
+        for (Patient patient : rows) {
+            if (patient.getContentHash() != null && mightContain(patient.getContentHash())) {
+                candidates.add(patient.getContentHash());
+            }
+        }
+        Set<ByteBuffer> found = candidates.isEmpty() ? Set.of() : lookup(conn, candidates);
+        List<Patient> retained = new ArrayList<>(rows.size());
+        for (Patient patient : rows) {
+            byte[] hash = patient.getContentHash();
+            if (hash != null && found.contains(ByteBuffer.wrap(hash))) {
+                duplicates.increment();
+                DUPLICATES_TOTAL.increment();
+                continue;
+            }
+            if (hash != null) {
+                put(hash);
+            }
+            retained.add(patient);
+        }
+        return retained;
+    }
+
+    /**
+     * @return number of rows removed by retainNew()
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return the hashes of the candidates found in the table
+     */
+    private static Set<ByteBuffer> lookup(Connection conn, List<byte[]> candidates) throws SQLException {
+        Set<ByteBuffer> found = new HashSet<>();
+        for (int from = 0; from < candidates.size(); from += LOOKUP_CHUNK) {
+            List<byte[]> chunk = candidates.subList(from, Math.min(candidates.size(), from + LOOKUP_CHUNK));
+            StringBuilder sql = new StringBuilder("select content_hash from patients where content_hash in (?");
+            sql.append(", ?".repeat(chunk.size() - 1)).append(')');
+            try (PreparedStatement select = conn.prepareStatement(sql.toString())) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    select.setBytes(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        found.add(ByteBuffer.wrap(rs.getBytes(1)));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
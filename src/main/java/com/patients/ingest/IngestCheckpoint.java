@@ -0,0 +1,123 @@
+package com.patients.ingest;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Progress of a sequential CSV import, saved after every committed batch so that a failed import resumes after it.
+ * The file is a properties file with the offset and the number of the next line to read, and the size and modification
+ * time of the CSV file: a checkpoint of another version of the file is ignored.
+ * It is replaced atomically, a crash while saving leaves the previous checkpoint.
+ */
+public class IngestCheckpoint {
+
+    private final static Logger LOGGER = LogManager.getLogger(IngestCheckpoint.class);
+
+    private static final String OFFSET = "offset";
+    private static final String LINE = "line";
+    private static final String FILE_SIZE = "fileSize";
+    private static final String FILE_MODIFIED = "fileModified";
+
+    /**
+     * Where to resume
+     */
+    public static final class Position {
+        private final long offset;
+        private final long line;
+
+        public Position(long offset, long line) {
+            this.offset = offset;
+            this.line = line;
+        }
+
+        /**
+         * @return offset of the next line to read
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return number of the next line to read, the header is line 1
+         */
+        public long getLine() {
+            return line;
+        }
+    }
+
+    // start of a file that was never imported
+    public static final Position START = new Position(0, 1);
+
+    private final Path file;
+    private final Path csvFile;
+
+    /**
+     * @param file the checkpoint file
+     * @param csvFile the imported CSV file
+     */
+    public IngestCheckpoint(Path file, Path csvFile) {
+        this.file = file;
+        this.csvFile = csvFile;
+    }
+
+    /**
+     * @return the position of the last save for this version of the CSV file, START if there is none
+     * @throws IOException the checkpoint or the CSV file cannot be read
+     */
+    public Position load() throws IOException {
+        if (!Files.exists(file)) {
+            return START;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        if (!String.valueOf(Files.size(csvFile)).equals(properties.getProperty(FILE_SIZE))
+                || !String.valueOf(Files.getLastModifiedTime(csvFile).toMillis()).equals(properties.getProperty(FILE_MODIFIED))) {
+            LOGGER.log(Level.WARN, "checkpoint " + file + " is not for this version of " + csvFile + ", starting over");
+            return START;
+        }
+        return new Position(Long.parseLong(properties.getProperty(OFFSET)), Long.parseLong(properties.getProperty(LINE)));
+    }
+
+    /**
+     * Replace the checkpoint, the file is synced before it replaces the previous one
+     * @param position where to resume
+     * @throws IOException the checkpoint cannot be written
+     */
+    public void save(Position position) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(OFFSET, String.valueOf(position.getOffset()));
+        properties.setProperty(LINE, String.valueOf(position.getLine()));
+        properties.setProperty(FILE_SIZE, String.valueOf(Files.size(csvFile)));
+        properties.setProperty(FILE_MODIFIED, String.valueOf(Files.getLastModifiedTime(csvFile).toMillis()));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            properties.store(out, "CSV import checkpoint of " + csvFile);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the checkpoint once the import completes
+     * @throws IOException the checkpoint cannot be removed
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
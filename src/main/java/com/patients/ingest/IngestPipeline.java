@@ -0,0 +1,238 @@
+package com.patients.ingest;
+
+import com.patients.database.BatchInserter;
+import com.patients.database.Database;
+import com.patients.model.Patient;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged CSV import: one reader, N parse workers and M writer workers.
+ * The reader splits the file into newline aligned chunks, the parse workers tokenize their chunks with a shared MappedCSVReader.
+ * Stages exchange chunks/blocks of patients through bounded queues, so a slow stage blocks the one before it (backpressure).
+ * Each writer holds its own pooled connection and inserts through a BatchInserter.
+ * Please note that rows are not inserted in file order when there is more than one worker, so there is no checkpoint
+ * to resume from: with a DuplicateFilter, running the import again only inserts the lines that are missing.
+ */
+public class IngestPipeline {
+
+    private final static Logger LOGGER = LogManager.getLogger(IngestPipeline.class);
+
+    // number of patients handed over between stages at once
+    private static final int BLOCK_SIZE = 512;
+
+    // number of chunks per parse worker, more chunks than workers balance the load
+    private static final int CHUNKS_PER_WORKER = 8;
+
+    // end of stream marker, compared by reference
+    private static final MappedCSVReader.Chunk END_OF_CHUNKS = new MappedCSVReader.Chunk(0, 0);
+    private static final List<Patient> END_OF_PATIENTS = Collections.emptyList();
+
+    private final int parseWorkers;
+    private final int writeWorkers;
+    private final int batchSize;
+    private final int batchRetries;
+    private final int queueCapacity;
+    // drops the lines already imported, shared by the writers; null to insert every line
+    private final DuplicateFilter duplicateFilter;
+
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+
+    /**
+     * @param parseWorkers number of threads converting lines to patients
+     * @param writeWorkers number of threads inserting into the DB, each one holds a pooled connection
+     * @param batchSize number of rows per batch/commit of each writer
+     * @param batchRetries number of retries of a failed batch
+     * @param queueCapacity number of blocks each queue holds before the producing stage blocks
+     */
+    public IngestPipeline(int parseWorkers, int writeWorkers, int batchSize, int batchRetries, int queueCapacity) {
+        this(parseWorkers, writeWorkers, batchSize, batchRetries, queueCapacity, null);
+    }
+
+    /**
+     * @param parseWorkers number of threads converting lines to patients
+     * @param writeWorkers number of threads inserting into the DB, each one holds a pooled connection
+     * @param batchSize number of rows per batch/commit of each writer
+     * @param batchRetries number of retries of a failed batch
+     * @param queueCapacity number of blocks each queue holds before the producing stage blocks
+     * @param duplicateFilter the hashes of the lines already imported, null to insert every line
+     */
+    public IngestPipeline(int parseWorkers, int writeWorkers, int batchSize, int batchRetries, int queueCapacity, DuplicateFilter duplicateFilter) {
+        if (parseWorkers < 1 || writeWorkers < 1) {
+            throw new IllegalArgumentException("at least one parse worker and one write worker are required");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.parseWorkers = parseWorkers;
+        this.writeWorkers = writeWorkers;
+        this.batchSize = batchSize;
+        this.batchRetries = batchRetries;
+        this.queueCapacity = queueCapacity;
+        this.duplicateFilter = duplicateFilter;
+    }
+
+    /**
+     * Run the import of the given CSV file. The first line (header) is skipped.
+     * @param csvFile the CSV file location
+     * @throws Exception the first failure of any stage; the other stages are cancelled
+     */
+    public void run(Path csvFile) throws Exception {
+        BlockingQueue<MappedCSVReader.Chunk> chunks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<Patient>> patients = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger runningParsers = new AtomicInteger(parseWorkers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(1 + parseWorkers + writeWorkers);
+        ExecutorCompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+        try (MappedCSVReader reader = new MappedCSVReader(csvFile)) {
+            reader.setContentHash(duplicateFilter != null);
+            stages.submit(() -> read(reader, chunks));
+            for (int i = 0; i < parseWorkers; i++) {
+                stages.submit(() -> parse(reader, chunks, patients, runningParsers));
+            }
+            for (int i = 0; i < writeWorkers; i++) {
+                stages.submit(() -> write(patients));
+            }
+            // wait for all stages, fail fast on the first failure
+            for (int i = 0; i < 1 + parseWorkers + writeWorkers; i++) {
+                try {
+                    stages.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+            parsed.set(reader.getParsed());
+            skipped.set(reader.getSkipped());
+        } finally {
+            // interrupts the stages blocked on the queues after a failure
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of lines converted into patients, available once run() completes
+     */
+    public long getParsed() {
+        return parsed.get();
+    }
+
+    /**
+     * @return number of lines that cannot be converted into patients, available once run() completes
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of committed rows
+     */
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    /**
+     * Reader stage: split the file into newline aligned chunks
+     */
+    private Void read(MappedCSVReader reader, BlockingQueue<MappedCSVReader.Chunk> chunks) throws IOException, InterruptedException {
+        for (MappedCSVReader.Chunk chunk : reader.split(parseWorkers * CHUNKS_PER_WORKER)) {
+            chunks.put(chunk);
+        }
+        // one end marker for each parse worker
+        for (int i = 0; i < parseWorkers; i++) {
+            chunks.put(END_OF_CHUNKS);
+        }
+        return null;
+    }
+
+    /**
+     * Parse stage: tokenize chunks into blocks of patients
+     */
+    private Void parse(MappedCSVReader reader, BlockingQueue<MappedCSVReader.Chunk> chunks, BlockingQueue<List<Patient>> patients,
+                       AtomicInteger runningParsers) throws Exception {
+        MappedCSVReader.Chunk chunk;
+        BlockCollector collector = new BlockCollector(patients);
+        while ((chunk = chunks.take()) != END_OF_CHUNKS) {
+            reader.read(chunk, collector);
+            collector.flush();
+        }
+        // the last parse worker tells every writer to stop
+        if (runningParsers.decrementAndGet() == 0) {
+            for (int i = 0; i < writeWorkers; i++) {
+                patients.put(END_OF_PATIENTS);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writer stage: insert blocks of patients over its own connection
+     */
+    private Void write(BlockingQueue<List<Patient>> patients) throws Exception {
+        try (Connection conn = Database.getConnection();
+             BatchInserter inserter = new BatchInserter(conn, batchSize, batchRetries, duplicateFilter)) {
+            List<Patient> block;
+            while ((block = patients.take()) != END_OF_PATIENTS) {
+                long before = inserter.getRowsInserted();
+                for (Patient patient : block) {
+                    inserter.add(patient);
+                }
+                inserted.addAndGet(inserter.getRowsInserted() - before);
+            }
+            // commit the last partial batch
+            long before = inserter.getRowsInserted();
+            inserter.flush();
+            inserted.addAndGet(inserter.getRowsInserted() - before);
+        }
+        LOGGER.log(Level.DEBUG, "writer " + Thread.currentThread().getName() + " completes");
+        return null;
+    }
+
+    /**
+     * Groups the patients of a parse worker into blocks for the writer queue
+     */
+    private static class BlockCollector implements MappedCSVReader.PatientHandler {
+        private final BlockingQueue<List<Patient>> patients;
+        private List<Patient> block = new ArrayList<>(BLOCK_SIZE);
+
+        BlockCollector(BlockingQueue<List<Patient>> patients) {
+            this.patients = patients;
+        }
+
+        @Override
+        public void handle(Patient patient) throws InterruptedException {
+            block.add(patient);
+            if (block.size() == BLOCK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Hand over the current (partial) block, blocks while the writer queue is full
+         */
+        void flush() throws InterruptedException {
+            if (!block.isEmpty()) {
+                patients.put(block);
+                block = new ArrayList<>(BLOCK_SIZE);
+            }
+        }
+    }
+}
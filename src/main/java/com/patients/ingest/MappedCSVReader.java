@@ -0,0 +1,448 @@
+package com.patients.ingest;
+
+import com.patients.CSVParser;
+import com.patients.metrics.MetricsRegistry;
+import com.patients.model.Patient;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the semicolon separated CSV file through memory mapped windows of a FileChannel, so files larger than 2 GB are supported.
+ * Lines are tokenized directly from the mapped bytes: there is no String per line, no regex and no String[] per row,
+ * Strings are only created for the non-blank fields that become Patient properties and the provider npi is parsed from the bytes.
+ * The provider name of a line is compared with the last name of its npi, a repeated name reuses that String instead of a new one.
+ * The file can be split into newline aligned chunks that can be read in parallel by the same reader.
+ * Like CSVParser.lineToPatient, a line must have exactly 7 columns (trailing empty columns do not count) or it is skipped.
+ * Optionally every patient gets the content hash of its 7 raw columns, to recognize the lines already imported.
+ */
+public class MappedCSVReader implements AutoCloseable {
+
+    private final static Logger LOGGER = LogManager.getLogger(MappedCSVReader.class);
+
+    // default size of a mapped window
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // length of the content hash, a truncated SHA-256
+    public static final int CONTENT_HASH_LENGTH = 16;
+
+    private static final int COLUMNS = 7;
+    private static final byte SEPARATOR = ';';
+    private static final int MAX_PROVIDERS = 10_000;
+
+    /**
+     * Callback for every converted line
+     */
+    @FunctionalInterface
+    public interface PatientHandler {
+        /**
+         * @param patient the patient converted from a line
+         * @throws Exception any exception stops the read
+         */
+        void handle(Patient patient) throws Exception;
+    }
+
+    /**
+     * Callback for every converted line, with its position in the file
+     */
+    @FunctionalInterface
+    public interface LineHandler {
+        /**
+         * @param patient the patient converted from a line
+         * @param line number of the line, counted from the first line of the read
+         * @param next offset of the line after it, a read from there resumes after this patient
+         * @throws Exception any exception stops the read
+         */
+        void handle(Patient patient, long line, long next) throws Exception;
+    }
+
+    /**
+     * A range of the file. The start is either 0 or right after a newline, the end is either the file size or right after a newline.
+     */
+    public static final class Chunk {
+        private final long start;
+        private final long end;
+
+        public Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    // set the content hash of the patients
+    private volatile boolean contentHash = false;
+
+    // last provider name of each npi, shared by the chunks read in parallel; bounded to MAX_PROVIDERS npis
+    private final ConcurrentHashMap<Integer, Provider> providers = new ConcurrentHashMap<>();
+
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    // process wide counters, exported by /metrics or -DmetricsFile
+    private static final LongAdder PARSED_TOTAL = MetricsRegistry.shared().counter("patients_ingest_lines_parsed_total", "CSV lines parsed to patients");
+    private static final LongAdder SKIPPED_TOTAL = MetricsRegistry.shared().counter("patients_ingest_lines_skipped_total", "CSV lines skipped, not 7 columns");
+
+    /**
+     * Open the CSV file with the default window size
+     * @param file the CSV file location
+     * @throws IOException the file cannot be opened
+     */
+    public MappedCSVReader(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Open the CSV file
+     * @param file the CSV file location
+     * @param windowSize size of a mapped window, a window is doubled for a line that does not fit
+     * @throws IOException the file cannot be opened
+     */
+    public MappedCSVReader(Path file, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param contentHash true to set the content hash of the patients, see Patient.getContentHash()
+     */
+    public void setContentHash(boolean contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the whole file as a single chunk
+     */
+    public Chunk all() {
+        return new Chunk(0, size);
+    }
+
+    /**
+     * Split the file into newline aligned chunks of about the same size
+     * @param parts the wanted number of chunks
+     * @return at most parts chunks covering the whole file, in file order
+     * @throws IOException read error while looking for newlines
+     */
+    public List<Chunk> split(int parts) throws IOException {
+        List<Chunk> chunks = new ArrayList<>(parts);
+        long start = 0;
+        for (int i = 1; i <= parts && start < size; i++) {
+            long end = i == parts ? size : Math.max(start, nextLineStart(size / parts * i));
+            if (end > start) {
+                chunks.add(new Chunk(start, end));
+                start = end;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Read the lines starting in the chunk. The chunk starting at 0 skips the first line (header).
+     * @param chunk the range to read, see split()
+     * @param handler called for every converted line, in file order
+     * @throws Exception read error or exception from the handler
+     */
+    public void read(Chunk chunk, PatientHandler handler) throws Exception {
+        read(chunk, 1, (patient, line, next) -> handler.handle(patient));
+    }
+
+    /**
+     * Read the lines starting in the chunk. The chunk starting at 0 skips the first line (header).
+     * @param chunk the range to read, see split()
+     * @param firstLine number of the first line of the chunk, 1 for the header
+     * @param handler called for every converted line, in file order
+     * @throws Exception read error or exception from the handler
+     */
+    public void read(Chunk chunk, long firstLine, LineHandler handler) throws Exception {
+        // one scratch line buffer per read, so that chunks can be read in parallel
+        byte[] line = new byte[8192];
+        int[] starts = new int[COLUMNS];
+        int[] ends = new int[COLUMNS];
+        MessageDigest digest = contentHash ? sha256() : null;
+        boolean header = chunk.getStart() == 0;
+        long pos = chunk.getStart();
+        long lineNumber = firstLine;
+        long window = windowSize;
+        while (pos < chunk.getEnd()) {
+            long mapped = Math.min(window, size - pos);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, mapped);
+            int limit = (int) mapped;
+            int lineStart = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                if (header) {
+                    header = false;
+                } else {
+                    line = copy(buffer, lineStart, i, line);
+                    Patient patient = convert(line, lineLength(line, i - lineStart), starts, ends, digest);
+                    if (patient != null) {
+                        handler.handle(patient, lineNumber, pos + i + 1);
+                    }
+                }
+                lineNumber++;
+                lineStart = i + 1;
+                if (pos + lineStart >= chunk.getEnd()) {
+                    break;
+                }
+            }
+            if (pos + limit == size && pos + lineStart < chunk.getEnd() && lineStart < limit) {
+                // last line without newline
+                if (!header) {
+                    line = copy(buffer, lineStart, limit, line);
+                    Patient patient = convert(line, lineLength(line, limit - lineStart), starts, ends, digest);
+                    if (patient != null) {
+                        handler.handle(patient, lineNumber, size);
+                    }
+                }
+                lineNumber++;
+                lineStart = limit;
+            }
+            if (lineStart == 0) {
+                // a line longer than the window, map a larger one
+                window = Math.min(Integer.MAX_VALUE, window * 2);
+                continue;
+            }
+            pos += lineStart;
+            window = windowSize;
+        }
+    }
+
+    /**
+     * @return number of lines converted into patients
+     */
+    public long getParsed() {
+        return parsed.sum();
+    }
+
+    /**
+     * @return number of lines that cannot be converted into patients
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return the position right after the next newline at or after pos, or the file size
+     */
+    private long nextLineStart(long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        // the line starting at pos may be the one ending right before it
+        long position = Math.max(0, pos - 1);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Copy the line bytes [from, to) of the window into the scratch buffer, growing it if needed
+     */
+    private static byte[] copy(MappedByteBuffer buffer, int from, int to, byte[] line) {
+        int length = to - from;
+        if (line.length < length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+        buffer.get(from, line, 0, length);
+        return line;
+    }
+
+    /**
+     * @return the line length without the trailing carriage return
+     */
+    private static int lineLength(byte[] line, int length) {
+        return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+    }
+
+    /**
+     * Tokenize a line and convert it
+     * @param starts scratch array for the start of the first 7 columns
+     * @param ends scratch array for the end of the first 7 columns
+     * @param digest computes the content hash, null if not wanted
+     * @return the patient, null if the line is skipped
+     */
+    private Patient convert(byte[] line, int length, int[] starts, int[] ends, MessageDigest digest) {
+        int column = 0;
+        int start = 0;
+        // same as String.split(): trailing empty columns are removed
+        int columns = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && line[i] != SEPARATOR) {
+                continue;
+            }
+            if (column < COLUMNS) {
+                starts[column] = start;
+                ends[column] = i;
+            }
+            column++;
+            if (i > start) {
+                columns = column;
+            }
+            start = i + 1;
+        }
+        // has to be 7 columns in this project
+        if (columns != COLUMNS) {
+            LOGGER.log(Level.WARN, "line length is not 7, skip...");
+            skipped.increment();
+            SKIPPED_TOTAL.increment();
+            return null;
+        }
+        int providerNpi = parseInt(line, starts[6], ends[6]);
+        Patient patient = CSVParser.toPatient(
+                string(line, starts[0], ends[0], false),
+                string(line, starts[1], ends[1], true),
+                string(line, starts[2], ends[2], true),
+                provider(line, starts[3], ends[3], providerNpi),
+                string(line, starts[4], ends[4], true),
+                string(line, starts[5], ends[5], true),
+                providerNpi);
+        if (digest != null) {
+            // the 7 columns as they are in the file, with their separators
+            digest.update(line, 0, ends[6]);
+            patient.setContentHash(Arrays.copyOf(digest.digest(), CONTENT_HASH_LENGTH));
+        }
+        parsed.increment();
+        PARSED_TOTAL.increment();
+        return patient;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the provider name, the String of the previous line of the npi if the bytes are the same; null if blank
+     */
+    private String provider(byte[] line, int start, int end, int providerNpi) {
+        Provider known = providers.get(providerNpi);
+        if (known != null && Arrays.equals(line, start, end, known.bytes, 0, known.bytes.length)) {
+            return known.name;
+        }
+        String name = string(line, start, end, true);
+        if (name != null && (known != null || providers.size() < MAX_PROVIDERS)) {
+            providers.put(providerNpi, new Provider(Arrays.copyOfRange(line, start, end), name));
+        }
+        return name;
+    }
+
+    /**
+     * A provider name and its bytes in the file
+     */
+    private static final class Provider {
+        private final byte[] bytes;
+        private final String name;
+
+        private Provider(byte[] bytes, String name) {
+            this.bytes = bytes;
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param nullable blank columns are returned as null instead of a String
+     */
+    private static String string(byte[] line, int start, int end, boolean nullable) {
+        if (nullable) {
+            int i = start;
+            while (i < end && isWhitespace(line[i])) {
+                i++;
+            }
+            if (i == end) {
+                return null;
+            }
+        }
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same as Character.isWhitespace for the ASCII range, used for the blank check of Strings.isBlank
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+    }
+
+    /**
+     * Same rules as Integer.parseInt, without the String
+     */
+    private static int parseInt(byte[] line, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + new String(line, start, end - start, StandardCharsets.UTF_8) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            value = value * 10 + digit;
+            if (digit < 0 || digit > 9 || value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + new String(line, start, end - start, StandardCharsets.UTF_8) + "\"");
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + new String(line, start, end - start, StandardCharsets.UTF_8) + "\"");
+        }
+        return (int) (negative ? -value : value);
+    }
+}
@@ -0,0 +1,195 @@
+package com.patients.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters, gauges and histograms of the process, written in the Prometheus text format.
+ * A metric is identified by its name and label values; asking twice for the same metric returns the same object,
+ * so callers can look it up per request or keep it in a field.
+ */
+public final class MetricsRegistry {
+
+    // quantiles written for every histogram
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+
+    MetricsRegistry() {
+    }
+
+    // name -> family, sorted for a stable output
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the registry of the process, exported by /metrics
+     */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param name metric name, e.g. patients_ingest_lines_parsed_total
+     * @param help description
+     * @param labels label names and values: name1, value1, name2, value2...
+     * @return the counter
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, Type.COUNTER, 1).get(labels, LongAdder::new);
+    }
+
+    /**
+     * @param name metric name, e.g. patients_db_pool_active_connections
+     * @param help description
+     * @param value read when the metrics are written
+     * @param labels label names and values: name1, value1, name2, value2...
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE, 1).metrics.put(labelString(labels), value);
+    }
+
+    /**
+     * A histogram of durations in nanoseconds, written in seconds as a summary and a _max gauge
+     * @param name metric name, e.g. patients_http_request_duration_seconds
+     * @param help description
+     * @param labels label names and values: name1, value1, name2, value2...
+     * @return the histogram
+     */
+    public Histogram timer(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.TIMER, 1e-9).get(labels, Histogram::new);
+    }
+
+    /**
+     * Write every metric in the Prometheus text format, version 0.0.4
+     * @param writer the output
+     * @throws IOException write error
+     */
+    public void write(Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.prometheusType).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, name, labels, null, ((LongAdder) value).sum());
+                        break;
+                    case GAUGE:
+                        sample(out, name, labels, null, ((DoubleSupplier) value).getAsDouble());
+                        break;
+                    case TIMER:
+                        Histogram histogram = (Histogram) value;
+                        for (double quantile : QUANTILES) {
+                            sample(out, name, labels, "quantile=\"" + quantile + "\"", histogram.getQuantile(quantile) * family.scale);
+                        }
+                        sample(out, name + "_sum", labels, null, histogram.getSum() * family.scale);
+                        sample(out, name + "_count", labels, null, histogram.getCount());
+                        break;
+                }
+            }
+            if (family.type == Type.TIMER) {
+                // the maximum is not part of a summary, it is its own gauge
+                out.append("# TYPE ").append(name).append("_max gauge\n");
+                for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                    sample(out, name + "_max", metric.getKey(), null, ((Histogram) metric.getValue()).getMax() * family.scale);
+                }
+            }
+        }
+        writer.write(out.toString());
+    }
+
+    private Family family(String name, String help, Type type, double scale) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type, scale));
+        if (family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extraLabel, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * @return name1="value1",name2="value2", values escaped
+     */
+    static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels are name and value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    out.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(ch);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), TIMER("summary");
+
+        private final String prometheusType;
+
+        Type(String prometheusType) {
+            this.prometheusType = prometheusType;
+        }
+    }
+
+    /**
+     * The metrics of one name, by label string
+     */
+    private static final class Family {
+        private final String help;
+        private final Type type;
+        // unit of the exported values per recorded unit
+        private final double scale;
+        private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String help, Type type, double scale) {
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+
+        private Object get(String[] labels, Supplier<Object> factory) {
+            return metrics.computeIfAbsent(labelString(labels), key -> factory.get());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.patients.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time breakdown of the HTTP request served by the current thread, recorded per endpoint and method when it ends:
+ * total latency, waiting for a pooled connection, serialization (codec reads and writes, including the body I/O),
+ * and the rest of the handler time, which is mostly spent in JDBC queries.
+ */
+public final class RequestMetrics {
+
+    private static final ThreadLocal<RequestMetrics> CURRENT = new ThreadLocal<>();
+
+    private static final Map<String, EndpointMetrics> ENDPOINTS = new ConcurrentHashMap<>();
+
+    private static final Histogram CONNECTION_WAIT = MetricsRegistry.shared().timer("patients_db_connection_wait_seconds",
+            "Time waiting for a pooled connection, all callers");
+
+    private final long start;
+    private long connectionWaitNanos = 0;
+    private long serializationNanos = 0;
+
+    private RequestMetrics(long start) {
+        this.start = start;
+    }
+
+    /**
+     * Start recording the request on the current thread
+     * @param start System.nanoTime() when the request was received
+     * @return the request metrics, end() must be called in a finally block
+     */
+    public static RequestMetrics begin(long start) {
+        RequestMetrics metrics = new RequestMetrics(start);
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    /**
+     * Record the request and stop recording on the current thread
+     * @param endpoint servlet path, e.g. /patient
+     * @param method HTTP method
+     * @param status HTTP status of the response, 500 if the request failed with an exception
+     */
+    public void end(String endpoint, String method, int status) {
+        CURRENT.remove();
+        long elapsed = System.nanoTime() - start;
+        EndpointMetrics metrics = ENDPOINTS.computeIfAbsent(endpoint + " " + method, key -> new EndpointMetrics(endpoint, method));
+        metrics.latency.record(elapsed);
+        metrics.connectionWait.record(connectionWaitNanos);
+        metrics.serialization.record(serializationNanos);
+        metrics.handler.record(elapsed - connectionWaitNanos - serializationNanos);
+        MetricsRegistry.shared().counter("patients_http_requests_total", "HTTP requests by status class",
+                "endpoint", endpoint, "method", method, "status", (status / 100) + "xx").increment();
+        if (status >= 500) {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * @param nanos time spent in Database.getConnection()
+     */
+    public static void recordConnectionWait(long nanos) {
+        CONNECTION_WAIT.record(nanos);
+        RequestMetrics metrics = CURRENT.get();
+        if (metrics != null) {
+            metrics.connectionWaitNanos += nanos;
+        }
+    }
+
+    /**
+     * @param nanos time spent reading or writing a body
+     */
+    public static void recordSerialization(long nanos) {
+        RequestMetrics metrics = CURRENT.get();
+        if (metrics != null) {
+            metrics.serializationNanos += nanos;
+        }
+    }
+
+    /**
+     * The metrics of one endpoint and method, looked up once
+     */
+    private static final class EndpointMetrics {
+        private final Histogram latency;
+        private final Histogram connectionWait;
+        private final Histogram serialization;
+        private final Histogram handler;
+        private final LongAdder errors;
+
+        private EndpointMetrics(String endpoint, String method) {
+            MetricsRegistry registry = MetricsRegistry.shared();
+            latency = registry.timer("patients_http_request_duration_seconds",
+                    "HTTP request latency, from the request to the end of the response", "endpoint", endpoint, "method", method);
+            connectionWait = registry.timer("patients_http_connection_wait_seconds",
+                    "Time of a request waiting for a pooled connection", "endpoint", endpoint, "method", method);
+            serialization = registry.timer("patients_http_serialization_seconds",
+                    "Time of a request reading and writing bodies", "endpoint", endpoint, "method", method);
+            handler = registry.timer("patients_http_query_seconds",
+                    "Time of a request outside connection wait and serialization, mostly JDBC queries", "endpoint", endpoint, "method", method);
+            errors = registry.counter("patients_http_errors_total",
+                    "HTTP requests answered with 5xx or failed with an exception", "endpoint", endpoint, "method", method);
+        }
+    }
+}
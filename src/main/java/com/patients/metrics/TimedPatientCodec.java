@@ -0,0 +1,136 @@
+package com.patients.metrics;
+
+import com.patients.codec.PatientCodec;
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * PatientCodec that records the time of every read and write in the RequestMetrics of the current request
+ */
+public final class TimedPatientCodec implements PatientCodec {
+
+    private final PatientCodec codec;
+
+    /**
+     * @param codec the codec doing the work
+     */
+    public TimedPatientCodec(PatientCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public String contentType() {
+        return codec.contentType();
+    }
+
+    @Override
+    public Patient read(Reader reader) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return codec.read(reader);
+        } finally {
+            RequestMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void write(Patient patient, Writer writer) throws IOException {
+        long start = System.nanoTime();
+        try {
+            codec.write(patient, writer);
+        } finally {
+            RequestMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public ListWriter beginList(Writer writer) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return timed(codec.beginList(writer));
+        } finally {
+            RequestMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public ListWriter beginLines(Writer writer) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return timed(codec.beginLines(writer));
+        } finally {
+            RequestMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    private static ListWriter timed(ListWriter list) {
+        return new ListWriter() {
+            @Override
+            public void write(Patient patient) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    list.write(patient);
+                } finally {
+                    RequestMetrics.recordSerialization(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void end() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    list.end();
+                } finally {
+                    RequestMetrics.recordSerialization(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    @Override
+    public ListReader readList(Reader reader) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return timed(codec.readList(reader));
+        } finally {
+            RequestMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public ListReader readLines(Reader reader) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return timed(codec.readLines(reader));
+        } finally {
+            RequestMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    private static ListReader timed(ListReader list) {
+        return new ListReader() {
+            @Override
+            public boolean hasNext() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return list.hasNext();
+                } finally {
+                    RequestMetrics.recordSerialization(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public Patient next() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return list.next();
+                } finally {
+                    RequestMetrics.recordSerialization(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+}
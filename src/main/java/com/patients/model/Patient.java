@@ -22,6 +22,8 @@ public class Patient {
     private String encounterNote;
     private String chiefComplaint;
     private Integer providerNpi;
+    // hash of the CSV line it was imported from, not part of the JSON
+    private transient byte[] contentHash;
 
     public Integer getId() {
         return id;
@@ -88,30 +90,98 @@ public class Patient {
     }
 
     /**
-     * Insert itself into the DB
+     * @return hash of the 7 columns of the CSV line it was imported from, null if it does not come from a CSV file
+     */
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(byte[] contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * The insert statement shared by the single-row insert and the batched ingest.
+     * The provider name is not a column of patients, it is the name of provider_npi in the providers table (see ProviderDictionary).
+     */
+    public static final String INSERT_SQL = "insert into patients (patient, dob, encounter_date, encounter_note, chief_complaint, provider_npi) values (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The insert statement of the CSV import with the content hash. A line imported before hits the unique key
+     * of content_hash and is ignored, "id = id" keeps the existing row unchanged.
+     */
+    public static final String INGEST_SQL = "insert into patients (patient, dob, encounter_date, encounter_note, chief_complaint, provider_npi, content_hash) values (?, ?, ?, ?, ?, ?, ?) on duplicate key update id = id";
+
+    /**
+     * The update statement of all the columns by id
+     */
+    public static final String UPDATE_SQL = "update patients set patient = ?, dob = ?, encounter_date = ?, encounter_note = ?, chief_complaint = ?, provider_npi = ? where id = ?";
+
+    /**
+     * Insert itself into the DB in one round trip, and set its id to the generated key
      * @param conn java.sql.Connection, the JDBC connection
-     * @return GeneratedKeys that includes the inserted id
+     * @return the inserted id
      * @throws SQLException exception during insert
      */
-    public ResultSet insert(Connection conn) throws SQLException {
-        PreparedStatement insert = conn.prepareStatement("insert into patients (patient, dob, encounter_date, provider, encounter_note, chief_complaint, provider_npi) values (?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+    public int insert(Connection conn) throws SQLException {
+        try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            bindInsert(insert);
+            // number of rows inserted has to be 1
+            int rows = insert.executeUpdate();
+            if (rows != 1) {
+                throw new SQLException("Creating user failed, no rows affected.");
+            }
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("Creating user failed, no id generated.");
+                }
+                this.setId(keys.getInt(1));
+                return this.getId();
+            }
+        }
+    }
+
+    /**
+     * Update its row by id in one round trip, the id must be set
+     * @param conn java.sql.Connection, the JDBC connection
+     * @return false if there is no row with its id. MySQL Connector/J counts matched rows (useAffectedRows=false),
+     * so an update that changes nothing still returns true.
+     * @throws SQLException exception during update
+     */
+    public boolean update(Connection conn) throws SQLException {
+        try (PreparedStatement update = conn.prepareStatement(UPDATE_SQL)) {
+            bindInsert(update);
+            update.setInt(7, this.getId());
+            return update.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Bind its columns to the parameters of a statement prepared from INSERT_SQL, or to the first 6 of UPDATE_SQL
+     * @param insert statement prepared from INSERT_SQL or UPDATE_SQL
+     * @throws SQLException exception during parameter binding
+     */
+    public void bindInsert(PreparedStatement insert) throws SQLException {
         insert.setString(1, this.getPatient());
         insert.setDate(2, this.getDob() == null ? null : new java.sql.Date(this.getDob().getTime()));
         insert.setDate(3, this.getEncounterDate() == null ? null : new java.sql.Date(this.getEncounterDate().getTime()));
-        insert.setString(4, this.getProvider());
-        insert.setString(5, this.getEncounterNote());
-        insert.setString(6, this.getChiefComplaint());
-        insert.setInt(7, this.getProviderNpi());
-        // number of rows inserted has to be 1
-        int rows = insert.executeUpdate();
-        if (rows != 1) {
-            throw new SQLException("Creating user failed, no rows affected.");
-        }
-        return insert.getGeneratedKeys();
+        insert.setString(4, this.getEncounterNote());
+        insert.setString(5, this.getChiefComplaint());
+        insert.setInt(6, this.getProviderNpi());
+    }
+
+    /**
+     * Bind its columns and its content hash to the parameters of a statement prepared from INGEST_SQL
+     * @param insert statement prepared from INGEST_SQL
+     * @throws SQLException exception during parameter binding
+     */
+    public void bindIngest(PreparedStatement insert) throws SQLException {
+        bindInsert(insert);
+        insert.setBytes(7, this.getContentHash());
     }
 
     /**
-     * Turns a ResultSet into a Patient Object
+     * Turns a ResultSet into a Patient Object, without the provider name which is not a column of patients
      * @param rs JDBC ResultSet
      * @return A Patient object
      * @throws SQLException any exception during ResultSet get
@@ -122,7 +192,6 @@ public class Patient {
         p.setPatient(rs.getString("patient"));
         p.setDob(rs.getDate("dob"));
         p.setEncounterDate(rs.getDate("encounter_date"));
-        p.setProvider(rs.getString("provider"));
         p.setEncounterNote(rs.getString("encounter_note"));
         p.setChiefComplaint(rs.getString("chief_complaint"));
         p.setProviderNpi(rs.getInt("provider_npi"));
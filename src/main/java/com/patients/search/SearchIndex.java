@@ -0,0 +1,310 @@
+package com.patients.search;
+
+import com.patients.model.Patient;
+import com.patients.store.PatientListener;
+import com.patients.store.PatientStore;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process inverted index over the encounter note and the chief complaint of the patients.
+ * Every term maps to the ids of the patients containing it, sorted, with the term frequencies.
+ * A query matches the patients containing all of its terms, ranked by BM25.
+ * The index is built from the store at startup (build()) and kept up to date as a PatientListener.
+ */
+public class SearchIndex implements PatientListener {
+
+    // BM25 parameters, the usual defaults
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // patients per page while building
+    private static final int BUILD_PAGE_SIZE = 10000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // term -> postings
+    private final Map<String, Postings> terms = new HashMap<>();
+    // id -> indexed terms, to remove a patient from the postings
+    private final Map<Integer, Document> documents = new HashMap<>();
+    // sum of the document lengths, for the average length
+    private long totalLength = 0;
+
+    /**
+     * Replace the content of the index by all the patients of the store
+     * @param store storage of the patients
+     * @throws SQLException storage failure
+     * @throws IOException not thrown, see PatientStore.RowHandler
+     */
+    public void build(PatientStore store) throws SQLException, IOException {
+        lock.writeLock().lock();
+        try {
+            terms.clear();
+            documents.clear();
+            totalLength = 0;
+            store.forEach(BUILD_PAGE_SIZE, this::add);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void inserted(Patient patient) {
+        lock.writeLock().lock();
+        try {
+            remove(patient.getId());
+            add(patient);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updated(Patient patient) {
+        inserted(patient);
+    }
+
+    @Override
+    public void deleted(int id) {
+        lock.writeLock().lock();
+        try {
+            remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed patients
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param query free text, all of its terms must match
+     * @param from number of hits to skip
+     * @param limits maximum number of hits to return
+     * @return the page of hits, best first; ties are broken by id
+     */
+    public SearchResult search(String query, int from, int limits) {
+        Set<String> queryTerms = new LinkedHashSet<>(Tokenizer.tokenize(query));
+        if (queryTerms.isEmpty()) {
+            return new SearchResult(0, new int[0], new float[0]);
+        }
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[queryTerms.size()];
+            int n = 0;
+            for (String term : queryTerms) {
+                Postings postings = terms.get(term);
+                if (postings == null) {
+                    // a term matches nothing, so does the query
+                    return new SearchResult(0, new int[0], new float[0]);
+                }
+                lists[n++] = postings;
+            }
+            // intersect starting from the rarest term, the other lists are only probed
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            double[] idf = new double[lists.length];
+            int count = documents.size();
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (count - lists[i].size + 0.5) / (lists[i].size + 0.5));
+            }
+            double averageLength = Math.max(1.0, (double) totalLength / Math.max(1, count));
+            int keep = (int) Math.min(Integer.MAX_VALUE, (long) from + limits);
+            // the best hits seen so far, worst at the head
+            PriorityQueue<Hit> best = new PriorityQueue<>();
+            int[] cursors = new int[lists.length];
+            int total = 0;
+            Postings rarest = lists[0];
+            candidates:
+            for (int c = 0; c < rarest.size; c++) {
+                int id = rarest.ids[c];
+                int length = documents.get(id).length;
+                double norm = K1 * (1 - B + B * length / averageLength);
+                double score = idf[0] * bm25(rarest.frequencies[c], norm);
+                for (int i = 1; i < lists.length; i++) {
+                    // the candidates are sorted, so the search of the next one starts where this one ended
+                    int found = lists[i].find(id, cursors[i]);
+                    if (found < 0) {
+                        cursors[i] = -found - 1;
+                        if (cursors[i] >= lists[i].size) {
+                            // no larger id can match
+                            break candidates;
+                        }
+                        continue candidates;
+                    }
+                    cursors[i] = found + 1;
+                    score += idf[i] * bm25(lists[i].frequencies[found], norm);
+                }
+                total++;
+                if (keep > 0) {
+                    Hit hit = new Hit(id, (float) score);
+                    if (best.size() < keep) {
+                        best.add(hit);
+                    } else if (hit.compareTo(best.peek()) > 0) {
+                        best.poll();
+                        best.add(hit);
+                    }
+                }
+            }
+            // the heap holds the best from + limits hits, the page is its tail
+            int hits = best.size();
+            int size = Math.max(0, hits - from);
+            int[] ids = new int[size];
+            float[] scores = new float[size];
+            for (int i = hits - from - 1; i >= -from; i--) {
+                Hit hit = best.poll();
+                if (i >= 0) {
+                    ids[i] = hit.id;
+                    scores[i] = hit.score;
+                }
+            }
+            return new SearchResult(total, ids, scores);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static double bm25(int frequency, double norm) {
+        return frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    /**
+     * Index a patient, the caller holds the write lock
+     */
+    private void add(Patient patient) {
+        List<String> tokens = new ArrayList<>();
+        Tokenizer.tokenize(patient.getEncounterNote(), tokens);
+        Tokenizer.tokenize(patient.getChiefComplaint(), tokens);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        int id = patient.getId();
+        String[] documentTerms = new String[frequencies.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            terms.computeIfAbsent(entry.getKey(), term -> new Postings()).add(id, entry.getValue());
+            documentTerms[i++] = entry.getKey();
+        }
+        documents.put(id, new Document(documentTerms, tokens.size()));
+        totalLength += tokens.size();
+    }
+
+    /**
+     * Remove a patient from the index, the caller holds the write lock
+     */
+    private void remove(int id) {
+        Document document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        for (String term : document.terms) {
+            Postings postings = terms.get(term);
+            postings.remove(id);
+            if (postings.size == 0) {
+                terms.remove(term);
+            }
+        }
+        totalLength -= document.length;
+    }
+
+    /**
+     * The indexed terms of a patient and its number of tokens
+     */
+    private static final class Document {
+        private final String[] terms;
+        private final int length;
+
+        private Document(String[] terms, int length) {
+            this.terms = terms;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A scored patient, ordered from the worst to the best: lower score, then higher id
+     */
+    private static final class Hit implements Comparable<Hit> {
+        private final int id;
+        private final float score;
+
+        private Hit(int id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int byScore = Float.compare(score, other.score);
+            return byScore != 0 ? byScore : Integer.compare(other.id, id);
+        }
+    }
+
+    /**
+     * Sorted ids of the patients containing a term, with the term frequencies.
+     * Ids mostly grow, so adding is mostly an append.
+     */
+    static final class Postings {
+        int[] ids = new int[2];
+        int[] frequencies = new int[2];
+        int size = 0;
+
+        void add(int id, int frequency) {
+            int at = size == 0 || ids[size - 1] < id ? -size - 1 : find(id, 0);
+            if (at >= 0) {
+                frequencies[at] = frequency;
+                return;
+            }
+            at = -at - 1;
+            if (size == ids.length) {
+                int capacity = size + (size >> 1) + 1;
+                ids = Arrays.copyOf(ids, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            System.arraycopy(frequencies, at, frequencies, at + 1, size - at);
+            ids[at] = id;
+            frequencies[at] = frequency;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = find(id, 0);
+            if (at < 0) {
+                return;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            System.arraycopy(frequencies, at + 1, frequencies, at, size - at - 1);
+            size--;
+        }
+
+        /**
+         * @return the index of the id at or after start, or -(insertion point) - 1
+         */
+        int find(int id, int start) {
+            return Arrays.binarySearch(ids, start, size, id);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.patients.search;
+
+/**
+ * A page of search hits, best first
+ */
+public class SearchResult {
+
+    private final int total;
+    private final int[] ids;
+    private final float[] scores;
+
+    SearchResult(int total, int[] ids, float[] scores) {
+        this.total = total;
+        this.ids = ids;
+        this.scores = scores;
+    }
+
+    /**
+     * @return number of patients matching the query, across all pages
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return ids of the patients of the page, best first
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * @return BM25 scores aligned with the ids
+     */
+    public float[] getScores() {
+        return scores;
+    }
+}
@@ -0,0 +1,51 @@
+package com.patients.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits free text into search terms: runs of letters and digits, lower cased.
+ * Terms shorter than 2 characters are dropped, longer than 64 are cut.
+ */
+public final class Tokenizer {
+
+    static final int MIN_LENGTH = 2;
+    static final int MAX_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @param text the text, nullable
+     * @param terms receives the terms in text order, with repetitions
+     */
+    public static void tokenize(String text, List<String> terms) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean word = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start >= MIN_LENGTH) {
+                    terms.add(text.substring(start, Math.min(i, start + MAX_LENGTH)).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * @param text the text, nullable
+     * @return the terms in text order, with repetitions
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text, terms);
+        return terms;
+    }
+}
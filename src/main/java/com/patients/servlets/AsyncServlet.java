@@ -0,0 +1,212 @@
+package com.patients.servlets;
+
+import com.patients.database.JdbcExecutor;
+import com.patients.metrics.RequestMetrics;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class of the servlets that block on JDBC. When the servlet is registered with async support,
+ * the request is put in async mode and doGet/doPost/... run on the JdbcExecutor, so that the web server thread
+ * goes back to the pool right away. A request body is read first without blocking, so a slow upload holds no thread;
+ * the response is still written by the JDBC thread. Otherwise, the request is served on the web server thread as usual.
+ * A request is refused with 503 when the executor queue is full, or when it waited in the queue too long.
+ * Either way, the request is recorded in RequestMetrics.
+ */
+public abstract class AsyncServlet extends HttpServlet {
+
+    private final static Logger LOGGER = LogManager.getLogger(AsyncServlet.class);
+
+    // jvm option -DjdbcQueueTimeoutMs, longest wait for a JDBC thread before the request is refused
+    public static final String JDBC_QUEUE_TIMEOUT_MS = "jdbcQueueTimeoutMs";
+
+    private static final long JDBC_QUEUE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(JDBC_QUEUE_TIMEOUT_MS, "30000")));
+
+    // jvm option -DmaxBodyBytes, largest request body in async mode, where it is read in memory before the request is served
+    public static final String MAX_BODY_BYTES = "maxBodyBytes";
+
+    private static final int MAX_BODY_BYTES_VALUE = Integer.parseInt(System.getProperty(MAX_BODY_BYTES, "67108864"));
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        long start = System.nanoTime();
+        if (!req.isAsyncSupported() || req.getDispatcherType() != DispatcherType.REQUEST) {
+            RequestMetrics metrics = RequestMetrics.begin(start);
+            int status = 500;
+            try {
+                super.service(req, resp);
+                status = resp.getStatus();
+            } finally {
+                metrics.end(req.getServletPath(), req.getMethod(), status);
+            }
+            return;
+        }
+        AsyncContext async = req.startAsync();
+        // no container timeout, the queue wait is checked by the task and a slow client is bounded by the idle timeout
+        async.setTimeout(0);
+        if (!hasBody(req)) {
+            dispatch(async, req, start);
+            return;
+        }
+        if (req.getContentLengthLong() > MAX_BODY_BYTES_VALUE) {
+            tooLarge(async, req, start);
+            return;
+        }
+        ServletInputStream in = req.getInputStream();
+        in.setReadListener(new BodyReader(async, req, in, start));
+    }
+
+    /**
+     * Queue the request on the JdbcExecutor, or refuse it with 503 when the queue is full
+     * @param async the async context of the request
+     * @param req the request, its body read
+     * @param start System.nanoTime() when the request was received
+     */
+    private void dispatch(AsyncContext async, HttpServletRequest req, long start) {
+        long queued = System.nanoTime();
+        try {
+            JdbcExecutor.shared().execute(() -> serviceAsync(async, req, start, queued));
+        } catch (RejectedExecutionException e) {
+            HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+            unavailable(resp);
+            RequestMetrics.begin(start).end(req.getServletPath(), req.getMethod(), resp.getStatus());
+            async.complete();
+        }
+    }
+
+    /**
+     * Serve the request on a JDBC thread, and complete it
+     * @param async the async context of the request
+     * @param req the request, its body read
+     * @param start System.nanoTime() when the request was received
+     * @param queued System.nanoTime() when the request was queued
+     */
+    private void serviceAsync(AsyncContext async, HttpServletRequest req, long start, long queued) {
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        RequestMetrics metrics = RequestMetrics.begin(start);
+        try {
+            if (System.nanoTime() - queued > JDBC_QUEUE_TIMEOUT_NANOS) {
+                unavailable(resp);
+                return;
+            }
+            super.service(req, resp);
+        } catch (Exception e) {
+            LOGGER.log(Level.ERROR, "failed to serve " + req.getMethod() + " " + req.getRequestURI() + ": ", e);
+            if (!resp.isCommitted()) {
+                resp.reset();
+                resp.setStatus(500);
+                try {
+                    resp.getWriter().println("500 Internal Server Err");
+                } catch (IOException ignored) {
+                    // the client is gone
+                }
+            }
+        } finally {
+            metrics.end(req.getServletPath(), req.getMethod(), resp.getStatus());
+            async.complete();
+        }
+    }
+
+    /**
+     * @param req the request
+     * @return true if the request has a body, or may have one: chunked, or HTTP/2 without content-length
+     */
+    private static boolean hasBody(HttpServletRequest req) {
+        if (req.getContentLengthLong() >= 0) {
+            return req.getContentLengthLong() > 0;
+        }
+        String method = req.getMethod();
+        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+    }
+
+    private static void tooLarge(AsyncContext async, HttpServletRequest req, long start) {
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        try {
+            resp.getWriter().println("the body cannot be larger than " + MAX_BODY_BYTES_VALUE + " bytes");
+        } catch (IOException ignored) {
+            // the client is gone
+        }
+        RequestMetrics.begin(start).end(req.getServletPath(), req.getMethod(), resp.getStatus());
+        async.complete();
+    }
+
+    private static void unavailable(HttpServletResponse resp) {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        try {
+            resp.getWriter().println("503 Service Unavailable");
+        } catch (IOException ignored) {
+            // the client is gone
+        }
+    }
+
+    /**
+     * Reads the request body as it arrives, on the web server threads, then queues the request with the body in memory
+     */
+    private class BodyReader implements ReadListener {
+        private final AsyncContext async;
+        private final HttpServletRequest req;
+        private final ServletInputStream in;
+        private final long start;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final byte[] buffer = new byte[8192];
+        // the request is answered, the rest of the body is ignored
+        private boolean done;
+
+        BodyReader(AsyncContext async, HttpServletRequest req, ServletInputStream in, long start) {
+            this.async = async;
+            this.req = req;
+            this.in = in;
+            this.start = start;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (!done && in.isReady()) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    return;
+                }
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_BODY_BYTES_VALUE) {
+                    done = true;
+                    tooLarge(async, req, start);
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            if (!done) {
+                done = true;
+                dispatch(async, new BufferedBodyRequest(req, body.toByteArray()), start);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOGGER.log(Level.DEBUG, "failed to read the body of " + req.getMethod() + " " + req.getRequestURI() + ": ", t);
+            if (!done) {
+                done = true;
+                HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                RequestMetrics.begin(start).end(req.getServletPath(), req.getMethod(), resp.getStatus());
+                async.complete();
+            }
+        }
+    }
+}
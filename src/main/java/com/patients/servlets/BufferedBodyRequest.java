@@ -0,0 +1,97 @@
+package com.patients.servlets;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * A request whose body was read beforehand, see AsyncServlet: getInputStream and getReader serve it from memory.
+ */
+class BufferedBodyRequest extends HttpServletRequestWrapper {
+
+    private final byte[] body;
+    // getInputStream or getReader, only one of them may be used
+    private Object reading;
+
+    /**
+     * @param request the request whose body was read
+     * @param body the body
+     */
+    BufferedBodyRequest(HttpServletRequest request, byte[] body) {
+        super(request);
+        this.body = body;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        if (reading instanceof BufferedReader) {
+            throw new IllegalStateException("getReader() was called");
+        }
+        if (reading == null) {
+            reading = new BodyInputStream(new ByteArrayInputStream(body));
+        }
+        return (ServletInputStream) reading;
+    }
+
+    @Override
+    public BufferedReader getReader() throws UnsupportedEncodingException {
+        if (reading instanceof ServletInputStream) {
+            throw new IllegalStateException("getInputStream() was called");
+        }
+        if (reading == null) {
+            // the default charset of the servlet specification, like the container
+            String encoding = getCharacterEncoding();
+            Charset charset;
+            try {
+                charset = encoding == null ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+            reading = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), charset));
+        }
+        return (BufferedReader) reading;
+    }
+
+    private static class BodyInputStream extends ServletInputStream {
+        private final ByteArrayInputStream in;
+
+        BodyInputStream(ByteArrayInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new IllegalStateException("the body is already read");
+        }
+    }
+}
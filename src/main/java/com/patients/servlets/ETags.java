@@ -0,0 +1,114 @@
+package com.patients.servlets;
+
+import com.patients.model.Patient;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Entity tags of the patient responses, for conditional GET (If-None-Match, 304 Not Modified).
+ * The tag is a 64 bit FNV-1a hash of the columns of the row(s), so it changes with any write and needs no
+ * version column: a written record has the tag of its next read.
+ */
+final class ETags {
+
+    static final String ETAG = "ETag";
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    // marks a null column, so that null and "" differ
+    private static final int NULL = 0x10000;
+    // ends a column, so that "ab","c" and "a","bc" differ
+    private static final int END = 0x10001;
+
+    private ETags() {
+    }
+
+    /**
+     * @param patient a record
+     * @return the quoted entity tag of the record
+     */
+    static String of(Patient patient) {
+        return quote(hash(OFFSET_BASIS, patient));
+    }
+
+    /**
+     * @param page the records of a page, in order
+     * @return the quoted entity tag of the page
+     */
+    static String of(List<Patient> page) {
+        long hash = OFFSET_BASIS;
+        for (Patient patient : page) {
+            hash = hash(hash, patient);
+        }
+        // an empty page differs from the basis of one record
+        return quote(mix(hash, page.size()));
+    }
+
+    /**
+     * Weak comparison of RFC 9110, as required for If-None-Match
+     * @param req Servlet request
+     * @param etag the quoted entity tag of the current representation
+     * @return true if the client already has it
+     */
+    static boolean notModified(HttpServletRequest req, String etag) {
+        String header = req.getHeader(IF_NONE_MATCH);
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long hash(long hash, Patient patient) {
+        hash = mix(hash, patient.getId());
+        hash = mix(hash, patient.getPatient());
+        hash = mix(hash, patient.getDob());
+        hash = mix(hash, patient.getEncounterDate());
+        hash = mix(hash, patient.getProvider());
+        hash = mix(hash, patient.getEncounterNote());
+        hash = mix(hash, patient.getChiefComplaint());
+        return mix(hash, patient.getProviderNpi());
+    }
+
+    private static long mix(long hash, Integer value) {
+        return value == null ? step(hash, NULL) : step(step(hash, value), END);
+    }
+
+    private static long mix(long hash, Date value) {
+        // the JSON has the calendar date, not the time of the day
+        return value == null ? step(hash, NULL) : mix(hash, new java.sql.Date(value.getTime()).toString());
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return step(hash, NULL);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = step(hash, value.charAt(i));
+        }
+        return step(hash, END);
+    }
+
+    private static long step(long hash, int value) {
+        return (hash ^ value) * PRIME;
+    }
+
+    private static String quote(long hash) {
+        return '"' + Long.toHexString(hash) + '"';
+    }
+}
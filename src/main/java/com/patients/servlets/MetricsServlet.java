@@ -0,0 +1,27 @@
+package com.patients.servlets;
+
+import com.patients.metrics.MetricsRegistry;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * MetricsServlet for endpoint /metrics, the metrics of the server in the Prometheus text format.
+ * It does not touch the database, so it is a plain servlet served on the Jetty thread.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    /**
+     * GET /metrics
+     * @param req Servlet request
+     * @param resp Servlet response
+     * @throws IOException Servlet exception
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain;version=0.0.4;charset=utf-8");
+        MetricsRegistry.shared().write(resp.getWriter());
+    }
+}
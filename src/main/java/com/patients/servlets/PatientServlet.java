@@ -1,9 +1,11 @@
 package com.patients.servlets;
 
-import com.patients.database.Database;
+import com.patients.cache.PatientCache;
+import com.patients.codec.PatientCodec;
+import com.patients.metrics.TimedPatientCodec;
 import com.patients.model.Patient;
-import com.google.gson.Gson;
-import jakarta.servlet.http.HttpServlet;
+import com.patients.store.PatientFields;
+import com.patients.store.PatientStore;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.apache.logging.log4j.Level;
@@ -11,23 +13,38 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.Date;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 /**
  * Patient Servlet to handle path /patient
  */
-public class PatientServlet extends HttpServlet {
+public class PatientServlet extends AsyncServlet {
 
     private final static Logger LOGGER = LogManager.getLogger(PatientServlet.class);
 
     private static final String ID = "id";
 
+    // wire format of the request and response bodies, shared by all requests
+    private static final PatientCodec CODEC = new TimedPatientCodec(PatientCodec.json());
+
+    // storage of the patients
+    private final PatientStore store;
+
+    // read-through cache for GET /patient?id=
+    private final PatientCache cache;
+
+    /**
+     * @param store storage of the patients
+     * @param cache read-through cache in front of the store
+     */
+    public PatientServlet(PatientStore store, PatientCache cache) {
+        this.store = store;
+        this.cache = cache;
+    }
+
     /**
-     * Get patient by id, /patient?id=1
+     * Get patient by id, /patient?id=1. The response has the ETag of the record, and is 304 Not Modified without a body
+     * when If-None-Match has it. fields=encounterNote,... returns the id and those fields only, e.g. the note of a list view record.
      * @param req Servlet request
      * @param resp Servlet response
      * @throws IOException Servlet exception
@@ -50,9 +67,21 @@ public class PatientServlet extends HttpServlet {
             resp.getWriter().println(ID + " is not a valid number");
             return;
         }
-        // get patient from db
-        try(Connection conn = Database.getConnection()) {
-            doGetPatient(resp, patientId, conn);
+        PatientFields fields = PatientsServlet.parseFields(req, resp, PatientFields.ALL);
+        if (fields == null) {
+            return;
+        }
+        // get patient from the cache, a miss loads it from the store
+        try {
+            // the cache holds complete records, the projection only narrows the response
+            Patient patient = fields.project(cache.get(patientId, store::get));
+            if (patient != null && ETags.notModified(req, ETags.of(patient))) {
+                // the client has this version, nothing to serialize or send
+                resp.setHeader(ETags.ETAG, ETags.of(patient));
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            writePatient(resp, patient);
         } catch (SQLException e) {
             LOGGER.log(Level.ERROR, "failed to get patient: ", e);
             resp.setStatus(500);
@@ -68,48 +97,33 @@ public class PatientServlet extends HttpServlet {
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        Gson gson = new Gson();
-        // Load Patient object from request body using GSON
+        // Load Patient object from request body using the shared codec
         Patient patient;
         try {
-            patient = gson.fromJson(req.getReader(), Patient.class);
+            patient = CODEC.read(req.getReader());
         } catch (RuntimeException e) {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             resp.getWriter().println("not a valid json");
             return;
         }
-        // Patient object cannot be null
-        if (patient == null) {
-            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println("no request body provided");
-            return;
-        }
-        // column patient cannot be null
-        if (patient.getPatient() == null) {
+        // body, .patient and .providerNpi are required
+        String error = PatientValidator.validate(patient);
+        if (error != null) {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println(".patient cannot be null");
+            resp.getWriter().println(error);
             return;
         }
-        // column provider_npi cannot be null
-        if (patient.getProviderNpi() == null) {
-            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println(".providerNpi cannot be null");
-            return;
-        }
-        try(Connection conn = Database.getConnection()) {
-            // do the actual insert
-            try (ResultSet keys = patient.insert(conn)) {
-                // get the inserted id (Auto Increase)
-                if (keys.next()) {
-                    // and return the inserted Patient object
-                    doGetPatient(resp, keys.getInt(1), conn);
-                }
-            }
+        try {
+            // do the actual insert, the inserted id (Auto Increase) is set on the patient
+            store.insert(patient);
         } catch (SQLException e) {
             LOGGER.log(Level.ERROR, "failed to create patient: ", e);
             resp.setStatus(500);
             resp.getWriter().println("500 Internal Server Err");
+            return;
         }
+        // return the inserted Patient object, the validated request plus its id, without reading it back
+        writePatient(resp, patient);
     }
 
     /**
@@ -120,71 +134,42 @@ public class PatientServlet extends HttpServlet {
      */
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        Gson gson = new Gson();
-        // load Patient from request body using GSON
+        // load Patient from request body using the shared codec
         Patient patient;
         try {
-            patient = gson.fromJson(req.getReader(), Patient.class);
+            patient = CODEC.read(req.getReader());
         } catch (RuntimeException e) {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             resp.getWriter().println("not a valid json");
             return;
         }
-        // json object cannot be null
-        if (patient == null) {
-            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println("no request body provided");
-            return;
-        }
-        // column patient cannot be null
-        if (patient.getPatient() == null) {
-            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println(".patient cannot be null");
-            return;
-        }
-        // column provider_npi cannot be null
-        if (patient.getProviderNpi() == null) {
-            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println(".providerNpi cannot be null");
-            return;
-        }
-        // column id cannot be null
-        if (patient.getId() == null) {
+        // body, .patient, .providerNpi and .id are required
+        String error = PatientValidator.validateUpdate(patient);
+        if (error != null) {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().println(".id is not provided");
+            resp.getWriter().println(error);
             return;
         }
-        // get DB connection from the pool
-        try(Connection conn = Database.getConnection()) {
-            // if patient id does not exist, return 404
-            PreparedStatement select = conn.prepareStatement("select 1 from patients where id = ?");
-            select.setInt(1, patient.getId());
-            ResultSet rs = select.executeQuery();
-            if (!rs.isBeforeFirst()) {
-                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                resp.getWriter().println(".id = " + patient.getId() + " is not found");
-                return;
-            }
-            // update
-            String sql = "update patients set patient = ?, dob = ?, encounter_date = ?, provider = ?, encounter_note = ?, chief_complaint = ?, provider_npi = ? where id = ?";
-            PreparedStatement update = conn.prepareStatement(sql);
-            update.setString(1, patient.getPatient());
-            update.setDate(2, patient.getDob() == null ? null : new Date(patient.getDob().getTime()));
-            update.setDate(3, patient.getEncounterDate() == null ? null : new Date(patient.getEncounterDate().getTime()));
-            update.setString(4, patient.getProvider());
-            update.setString(5, patient.getEncounterNote());
-            update.setString(6, patient.getChiefComplaint());
-            update.setInt(7, patient.getProviderNpi());
-            update.setInt(8, patient.getId());
-            // execute
-            update.executeUpdate();
-            // return updated patient object
-            doGetPatient(resp, patient.getId(), conn);
+        boolean found;
+        try {
+            // update, the matched row count tells whether the id exists
+            found = store.update(patient);
         } catch (SQLException e) {
             LOGGER.log(Level.ERROR, "failed to update patient: ", e);
             resp.setStatus(500);
             resp.getWriter().println("500 Internal Server Err");
+            return;
+        } finally {
+            cache.invalidate(patient.getId());
+        }
+        // if patient id does not exist, return 404
+        if (!found) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            resp.getWriter().println(".id = " + patient.getId() + " is not found");
+            return;
         }
+        // return updated patient object, the validated request is the new row
+        writePatient(resp, patient);
     }
 
     /**
@@ -211,12 +196,10 @@ public class PatientServlet extends HttpServlet {
             resp.getWriter().println(ID + " is not a valid number");
             return;
         }
-        // Get DB connection
-        try(Connection conn = Database.getConnection()) {
+        try {
             // delete
-            PreparedStatement delete = conn.prepareStatement("delete from patients where id = ?");
-            delete.setInt(1, patientId);
-            delete.execute();
+            store.delete(patientId);
+            cache.invalidate(patientId);
 
             // always return 204, no content
             resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
@@ -228,25 +211,18 @@ public class PatientServlet extends HttpServlet {
     }
 
     /**
-     * Helper function to load the patient by id and return it through servlet response
+     * Helper function to return the patient through servlet response, with its ETag
      * @param resp Servlet response
-     * @param patientId Patient id
-     * @param conn DB connection
-     * @throws SQLException Servlet exception
-     * @throws IOException DB exception
+     * @param patient the patient, null writes null
+     * @throws IOException exception while writing the response
      */
-    private void doGetPatient(HttpServletResponse resp, int patientId, Connection conn) throws SQLException, IOException {
-        String sql = "select id, patient, dob, encounter_date, provider, encounter_note, chief_complaint, provider_npi from patients where id = ?";
-        PreparedStatement select = conn.prepareStatement(sql);
-        select.setInt(1, patientId);
-        try (ResultSet rs = select.executeQuery()) {
-            if (!rs.isBeforeFirst()) {
-                // no record found return null
-                resp.getWriter().println(new Gson().toJson(null));
-                return;
-            }
-            rs.next();
-            resp.getWriter().println(new Gson().toJson(Patient.rsToPatient(rs)));
-        }
+    private static void writePatient(HttpServletResponse resp, Patient patient) throws IOException {
+        if (patient != null) {
+            // also after POST and PUT, so that the next GET of the writer can be conditional
+            resp.setHeader(ETags.ETAG, ETags.of(patient));
+        }
+        resp.setContentType(CODEC.contentType());
+        CODEC.write(patient, resp.getWriter());
+        resp.getWriter().println();
     }
 }
@@ -0,0 +1,47 @@
+package com.patients.servlets;
+
+import com.patients.model.Patient;
+
+/**
+ * Validation rules of a Patient request body, shared by POST /patient, PUT /patient and POST /patients/batch
+ */
+final class PatientValidator {
+
+    private PatientValidator() {
+    }
+
+    /**
+     * Rules of a new record
+     * @param patient Patient loaded from the request body
+     * @return the error message, null if the patient is valid
+     */
+    static String validate(Patient patient) {
+        // Patient object cannot be null
+        if (patient == null) {
+            return "no request body provided";
+        }
+        // column patient cannot be null
+        if (patient.getPatient() == null) {
+            return ".patient cannot be null";
+        }
+        // column provider_npi cannot be null
+        if (patient.getProviderNpi() == null) {
+            return ".providerNpi cannot be null";
+        }
+        return null;
+    }
+
+    /**
+     * Rules of an update, the id must be provided as well
+     * @param patient Patient loaded from the request body
+     * @return the error message, null if the patient is valid
+     */
+    static String validateUpdate(Patient patient) {
+        String error = validate(patient);
+        // column id cannot be null
+        if (error == null && patient.getId() == null) {
+            return ".id is not provided";
+        }
+        return error;
+    }
+}
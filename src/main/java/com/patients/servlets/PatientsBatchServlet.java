@@ -0,0 +1,171 @@
+package com.patients.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.patients.CSVParser;
+import com.patients.codec.PatientCodec;
+import com.patients.metrics.TimedPatientCodec;
+import com.patients.model.Patient;
+import com.patients.store.PatientStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PatientsBatchServlet for endpoint /patients/batch, bulk create
+ */
+public class PatientsBatchServlet extends AsyncServlet {
+
+    private final static Logger LOGGER = LogManager.getLogger(PatientsBatchServlet.class);
+
+    // jvm option -DmaxBatchRecords, the largest number of records of one request
+    public static final String MAX_BATCH_RECORDS = "maxBatchRecords";
+
+    private static final int MAX_BATCH_RECORDS_VALUE = Integer.parseInt(System.getProperty(MAX_BATCH_RECORDS, "10000"));
+
+    // rows per multi-row insert, same option as the csv loader
+    private static final int BATCH_SIZE_VALUE = Integer.parseInt(System.getProperty(CSVParser.BATCH_SIZE, "1000"));
+
+    // wire format of the request body, shared by all requests
+    private static final PatientCodec CODEC = new TimedPatientCodec(PatientCodec.json());
+
+    // storage of the patients
+    private final PatientStore store;
+
+    /**
+     * @param store storage of the patients
+     */
+    public PatientsBatchServlet(PatientStore store) {
+        this.store = store;
+    }
+
+    /**
+     * POST /patients/batch, create many records at once. The body is either a JSON array of Patient objects,
+     * or NDJSON (Content-Type application/x-ndjson), one Patient object per line.
+     * The whole body is read before a database connection is taken, so a slow upload does not hold a pooled one.
+     * Every record is validated with the rules of POST /patient, invalid records are reported and skipped,
+     * the valid ones are inserted in multi-row batches in a single transaction.
+     * Response: {"ids": [id of every record, null if invalid], "errors": [{"index": 0, "error": "..."}]}
+     * @param req Servlet request
+     * @param resp Servlet response
+     * @throws IOException Servlet exception
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        BufferedReader body = req.getReader();
+        // the valid records and their index, in insert order
+        List<Patient> patients = new ArrayList<>();
+        List<Integer> inserted = new ArrayList<>();
+        List<RecordError> errors = new ArrayList<>();
+        int records = 0;
+        // the body is read before a pooled connection is taken, a slow upload does not hold one
+        try {
+            PatientCodec.ListReader reader = isNdjson(req) ? CODEC.readLines(body) : CODEC.readList(body);
+            while (reader.hasNext()) {
+                if (records == MAX_BATCH_RECORDS_VALUE) {
+                    resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    resp.getWriter().println("no more than " + MAX_BATCH_RECORDS_VALUE + " records per request");
+                    return;
+                }
+                int index = records++;
+                Patient patient;
+                try {
+                    patient = reader.next();
+                } catch (RuntimeException e) {
+                    errors.add(new RecordError(index, "not a valid json"));
+                    continue;
+                }
+                String error = PatientValidator.validate(patient);
+                if (error != null) {
+                    errors.add(new RecordError(index, error));
+                    continue;
+                }
+                patients.add(patient);
+                inserted.add(index);
+            }
+        } catch (IOException e) {
+            // the rest of the body cannot be read, nothing is inserted
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println("not a valid json");
+            return;
+        }
+        List<Integer> ids;
+        // all the records are inserted in one transaction
+        try (PatientStore.Batch batch = store.beginBatch(BATCH_SIZE_VALUE)) {
+            for (Patient patient : patients) {
+                batch.add(patient);
+            }
+            ids = batch.commit();
+        } catch (SQLException e) {
+            LOGGER.log(Level.ERROR, "failed to create patients: ", e);
+            resp.setStatus(500);
+            resp.getWriter().println("500 Internal Server Err");
+            return;
+        }
+        writeResult(resp, records, inserted, ids, errors);
+    }
+
+    /**
+     * @return true if the body is NDJSON, else it is a JSON array
+     */
+    private static boolean isNdjson(HttpServletRequest req) {
+        String contentType = req.getContentType();
+        if (contentType == null) {
+            return false;
+        }
+        String mimeType = contentType.split(";", 2)[0].trim().toLowerCase();
+        return mimeType.equals("application/x-ndjson") || mimeType.equals("application/ndjson") || mimeType.equals("application/jsonl");
+    }
+
+    /**
+     * Helper function to return the generated ids, aligned with the records of the request, and the errors
+     * @param resp Servlet response
+     * @param records number of records in the request
+     * @param inserted index of the inserted records
+     * @param ids generated id of the inserted records
+     * @param errors the invalid records
+     * @throws IOException exception while writing the response
+     */
+    private static void writeResult(HttpServletResponse resp, int records, List<Integer> inserted, List<Integer> ids, List<RecordError> errors) throws IOException {
+        resp.setContentType(CODEC.contentType());
+        JsonWriter out = new JsonWriter(resp.getWriter());
+        out.beginObject();
+        out.name("ids").beginArray();
+        for (int index = 0, next = 0; index < records; index++) {
+            if (next < inserted.size() && inserted.get(next) == index) {
+                out.value(ids.get(next++));
+            } else {
+                out.nullValue();
+            }
+        }
+        out.endArray();
+        out.name("errors").beginArray();
+        for (RecordError error : errors) {
+            out.beginObject().name("index").value(error.index).name("error").value(error.message).endObject();
+        }
+        out.endArray();
+        out.endObject();
+        out.flush();
+        resp.getWriter().println();
+    }
+
+    /**
+     * Index of an invalid record in the request, and the reason
+     */
+    private static final class RecordError {
+        private final int index;
+        private final String message;
+
+        private RecordError(int index, String message) {
+            this.index = index;
+            this.message = message;
+        }
+    }
+}
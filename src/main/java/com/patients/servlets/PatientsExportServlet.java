@@ -0,0 +1,94 @@
+package com.patients.servlets;
+
+import com.patients.codec.BinaryPatientFormat;
+import com.patients.codec.CsvPatientFormat;
+import com.patients.codec.PatientCodec;
+import com.patients.store.PatientFilter;
+import com.patients.store.PatientStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * PatientsExportServlet for endpoint /patients/export, the whole table in one streamed response
+ */
+public class PatientsExportServlet extends AsyncServlet {
+
+    private final static Logger LOGGER = LogManager.getLogger(PatientsExportServlet.class);
+
+    // query parameter format=, ndjson (default), csv or bin
+    private static final String FORMAT = "format";
+
+    // jvm option -DexportPageSize, number of rows per query of an export
+    public static final String EXPORT_PAGE_SIZE = "exportPageSize";
+
+    private static final int EXPORT_PAGE_SIZE_VALUE = Integer.parseInt(System.getProperty(EXPORT_PAGE_SIZE, "10000"));
+
+    // storage of the patients
+    private final PatientStore store;
+
+    /**
+     * @param store storage of the patients
+     */
+    public PatientsExportServlet(PatientStore store) {
+        this.store = store;
+    }
+
+    /**
+     * GET /patients/export?format=ndjson|csv|bin, every patient matching the filters of /patients, in id order.
+     * The rows are read in keyset pages of -DexportPageSize and written as they are read, with chunked transfer,
+     * so the server memory does not depend on the size of the table.
+     * ndjson: one JSON record per line. csv: the format of the imported files, see CsvPatientFormat.
+     * bin: length prefixed column blocks, see BinaryPatientFormat.
+     * A failure after the first rows truncates the response: the bin end marker is missing.
+     * @param req Servlet request
+     * @param resp Servlet response
+     * @throws IOException Servlet exception
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String format = req.getParameter(FORMAT) == null ? "ndjson" : req.getParameter(FORMAT);
+        if (!format.equals("ndjson") && !format.equals("csv") && !format.equals("bin")) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println(FORMAT + " must be ndjson, csv or bin");
+            return;
+        }
+        PatientFilter filter = PatientsServlet.parseFilter(req, resp);
+        if (filter == null) {
+            return;
+        }
+        resp.setHeader("Content-Disposition", "attachment; filename=\"patients." + format + "\"");
+        PatientCodec.ListWriter writer;
+        switch (format) {
+            case "csv":
+                resp.setContentType(CsvPatientFormat.CONTENT_TYPE);
+                writer = CsvPatientFormat.beginList(resp.getWriter());
+                break;
+            case "bin":
+                resp.setContentType(BinaryPatientFormat.CONTENT_TYPE);
+                writer = BinaryPatientFormat.beginList(resp.getOutputStream());
+                break;
+            default:
+                resp.setContentType("application/x-ndjson;charset=utf-8");
+                writer = PatientCodec.json().beginLines(resp.getWriter());
+        }
+        try {
+            store.forEach(filter, EXPORT_PAGE_SIZE_VALUE, writer::write);
+            writer.end();
+        } catch (SQLException e) {
+            LOGGER.log(Level.ERROR, "failed to export patients: ", e);
+            if (resp.isCommitted()) {
+                // part of the rows are already sent, the client sees a truncated response
+                return;
+            }
+            resp.reset();
+            resp.setStatus(500);
+            resp.getWriter().println("500 Internal Server Err");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.patients.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.patients.search.SearchIndex;
+import com.patients.search.SearchResult;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.util.Strings;
+
+import java.io.IOException;
+
+/**
+ * PatientsSearchServlet for endpoint /patients/search, full-text search over encounter notes and chief complaints
+ */
+public class PatientsSearchServlet extends AsyncServlet {
+
+    // query parameter q=, the searched terms
+    private static final String QUERY = "q";
+    // query parameter from=
+    private static final String FROM = "from";
+    // query parameter limits=
+    private static final String LIMITS = "limits";
+
+    // same largest page size as /patients
+    private static final int MAX_LIMITS_VALUE = Integer.parseInt(System.getProperty(PatientsServlet.MAX_LIMITS, "10"));
+
+    // the in-process index of the patients
+    private final SearchIndex index;
+
+    /**
+     * @param index the in-process index of the patients
+     */
+    public PatientsSearchServlet(SearchIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * GET /patients/search?q=chest+pain&from=0&limits=10, the ids of the patients whose encounter note or chief complaint
+     * contains all the terms of q, best first (BM25). Terms are runs of letters and digits, case insensitive.
+     * Response: {"total": number of matches, "hits": [{"id": 12, "score": 3.5}]}
+     * @param req Servlet request
+     * @param resp Servlet response
+     * @throws IOException Servlet exception
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String query = req.getParameter(QUERY);
+        if (Strings.isBlank(query)) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println("q is not provided");
+            return;
+        }
+        // default values
+        int from = 0;
+        int limits = 10;
+        try {
+            // must be integers
+            if (req.getParameterMap().containsKey(FROM)) {
+                from = Integer.parseInt(req.getParameter(FROM));
+            }
+            if (req.getParameterMap().containsKey(LIMITS)) {
+                limits = Integer.parseInt(req.getParameter(LIMITS));
+            }
+        } catch (RuntimeException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println("from and limits must be valid numbers");
+            return;
+        }
+        if (from < 0 || limits < 0) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println("from and limits cannot be less than 0");
+            return;
+        }
+        if (limits > MAX_LIMITS_VALUE) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println("limits cannot be larger than " + MAX_LIMITS_VALUE);
+            return;
+        }
+        SearchResult result = index.search(query, from, limits);
+        resp.setContentType("application/json;charset=utf-8");
+        JsonWriter out = new JsonWriter(resp.getWriter());
+        out.beginObject();
+        out.name("total").value(result.getTotal());
+        out.name("hits").beginArray();
+        for (int i = 0; i < result.getIds().length; i++) {
+            out.beginObject().name("id").value(result.getIds()[i]).name("score").value(result.getScores()[i]).endObject();
+        }
+        out.endArray();
+        out.endObject();
+        out.flush();
+        resp.getWriter().println();
+    }
+}
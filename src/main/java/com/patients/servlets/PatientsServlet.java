@@ -1,27 +1,31 @@
 package com.patients.servlets;
 
-import com.patients.database.Database;
+import com.patients.codec.PatientCodec;
+import com.patients.metrics.TimedPatientCodec;
 import com.patients.model.Patient;
-import com.google.gson.Gson;
-import jakarta.servlet.http.HttpServlet;
+import com.patients.store.PatientFields;
+import com.patients.store.PatientFilter;
+import com.patients.store.PatientStore;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Strings;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 
 /**
  * PatientsServlet for endpoint /patients
  */
-public class PatientsServlet extends HttpServlet {
+public class PatientsServlet extends AsyncServlet {
 
     private final static Logger LOGGER = LogManager.getLogger(PatientsServlet.class);
 
@@ -29,9 +33,64 @@ public class PatientsServlet extends HttpServlet {
     private static final String FROM = "from";
     // query parameter limits=
     private static final String LIMITS = "limits";
+    // query parameter cursor=, the opaque token of the next page; empty for the first page
+    private static final String CURSOR = "cursor";
+    // filter query parameters, see PatientFilter
+    private static final String PROVIDER_NPI = "providerNpi";
+    private static final String CHIEF_COMPLAINT = "chiefComplaint";
+    private static final String PATIENT_PREFIX = "patientPrefix";
+    private static final String DOB_FROM = "dobFrom";
+    private static final String DOB_TO = "dobTo";
+    private static final String ENCOUNTER_DATE_FROM = "encounterDateFrom";
+    private static final String ENCOUNTER_DATE_TO = "encounterDateTo";
+    // query parameter fields=, the projection, see PatientFields
+    static final String FIELDS = "fields";
+    // response header with the cursor of the next page
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    // jvm option -DmaxLimits, the largest page size
+    public static final String MAX_LIMITS = "maxLimits";
+
+    private static final int MAX_LIMITS_VALUE = Integer.parseInt(System.getProperty(MAX_LIMITS, "10"));
+
+    // jvm option -DpageETagMaxLimits, from= pages up to this size are read before they are written to get their ETag,
+    // larger pages are streamed without; the default page size, so that raising -DmaxLimits alone streams the larger pages
+    public static final String PAGE_ETAG_MAX_LIMITS = "pageETagMaxLimits";
+
+    private static final int PAGE_ETAG_MAX_LIMITS_VALUE = Integer.parseInt(System.getProperty(PAGE_ETAG_MAX_LIMITS, "10"));
+
+    // jvm option -DcursorMaxLimits, the largest page size with cursor, whose pages are always read before they are written
+    public static final String CURSOR_MAX_LIMITS = "cursorMaxLimits";
+
+    private static final int CURSOR_MAX_LIMITS_VALUE = Integer.parseInt(System.getProperty(CURSOR_MAX_LIMITS, "1000"));
+
+    // wire format of the response body, shared by all requests
+    private static final PatientCodec CODEC = new TimedPatientCodec(PatientCodec.json());
+
+    // cursor token prefix, versions the token format
+    private static final String CURSOR_PREFIX = "v1:";
+
+    // storage of the patients
+    private final PatientStore store;
 
     /**
-     * GET /patients?from=0&limit=10, return the list of patient-records in the database
+     * @param store storage of the patients
+     */
+    public PatientsServlet(PatientStore store) {
+        this.store = store;
+    }
+
+    /**
+     * GET /patients?from=0&limit=10 or /patients?cursor=&limits=10, return the list of patient-records in the database.
+     * With cursor=, pages are read with "where id &gt; ?" (keyset pagination) so that every page costs the same,
+     * and the cursor of the next page is returned in the X-Next-Cursor header when the page is full.
+     * Both can be combined with the filters providerNpi=, chiefComplaint=, patientPrefix= and the inclusive ISO date ranges
+     * dobFrom=, dobTo=, encounterDateFrom=, encounterDateTo=; the filters must be repeated on every page.
+     * Pages with cursor= are read whole, up to -DcursorMaxLimits records, to know the next cursor before the body is written.
+     * Those pages and the from= pages up to -DpageETagMaxLimits records have an ETag, and are 304 Not Modified without a body
+     * when If-None-Match has it.
+     * The records have every field but the encounter note, which is read with GET /patient?id=; fields=all or
+     * fields=patient,dob,... (the id is always returned) choose the fields, only those are read from the store.
      * @param req Servlet request
      * @param resp Servlet response
      * @throws IOException Servlet exception
@@ -41,6 +100,21 @@ public class PatientsServlet extends HttpServlet {
         // default values
         int from = 0;
         int limits = 10;
+        Integer afterId = null;
+        if (req.getParameterMap().containsKey(CURSOR)) {
+            // cursor and from are exclusive
+            if (req.getParameterMap().containsKey(FROM)) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().println("cursor and from cannot be used together");
+                return;
+            }
+            afterId = decodeCursor(req.getParameter(CURSOR));
+            if (afterId == null) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().println("cursor is not valid");
+                return;
+            }
+        }
         if (req.getParameterMap().containsKey(FROM)) {
             try {
                 // must be integer
@@ -66,10 +140,10 @@ public class PatientsServlet extends HttpServlet {
                 resp.getWriter().println("limits is not a valid number");
                 return;
             }
-            if (limits > 10) {
-                // must be smaller than 10
+            if (limits > MAX_LIMITS_VALUE) {
+                // must be smaller than -DmaxLimits, 10 by default
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                resp.getWriter().println("limits cannot be larger than 10");
+                resp.getWriter().println("limits cannot be larger than " + MAX_LIMITS_VALUE);
                 return;
             }
             if (limits < 0) {
@@ -78,22 +152,175 @@ public class PatientsServlet extends HttpServlet {
                 resp.getWriter().println("from cannot be less than 0");
                 return;
             }
+            if (afterId != null && limits > CURSOR_MAX_LIMITS_VALUE) {
+                // must be smaller than -DcursorMaxLimits, 1000 by default
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().println("limits cannot be larger than " + CURSOR_MAX_LIMITS_VALUE + " with cursor");
+                return;
+            }
         }
-        try(Connection conn = Database.getConnection()) {
-            // select and return
-            PreparedStatement select = conn.prepareStatement("select id, patient, dob, encounter_date, provider, encounter_note, chief_complaint, provider_npi from patients order by id limit ?, ?");
-            select.setInt(1, from);
-            select.setInt(2, limits);
-            ResultSet rs = select.executeQuery();
-            List<Patient> patients = new ArrayList<>();
-            while (rs.next()) {
-                patients.add(Patient.rsToPatient(rs));
+        PatientFilter filter = parseFilter(req, resp);
+        if (filter == null) {
+            return;
+        }
+        // list views rarely need the note, the largest column
+        PatientFields fields = parseFields(req, resp, PatientFields.WITHOUT_NOTE);
+        if (fields == null) {
+            return;
+        }
+        try {
+            // the cursor of the next page is the id of the last row and goes in a header, before the body
+            if (afterId != null || limits <= PAGE_ETAG_MAX_LIMITS_VALUE) {
+                writePage(req, resp, filter, fields, from, afterId, limits);
+                return;
             }
-            resp.getWriter().println(new Gson().toJson(patients));
+            resp.setContentType(CODEC.contentType());
+            // the rows are written as they are read, so that memory does not grow with the number of rows
+            PatientCodec.ListWriter writer = CODEC.beginList(resp.getWriter());
+            store.list(filter, fields, from, limits, writer::write);
+            writer.end();
+            resp.getWriter().println();
         } catch (SQLException e) {
             LOGGER.log(Level.ERROR, "failed to get patient: ", e);
+            if (resp.isCommitted()) {
+                // part of the rows are already sent, the client sees a truncated response
+                return;
+            }
+            resp.reset();
             resp.setStatus(500);
             resp.getWriter().println("500 Internal Server Err");
         }
     }
+
+    /**
+     * Helper function to read a page, then return it with its ETag, or 304 Not Modified
+     * @param afterId the id the page starts after with a cursor, null to skip from records
+     * @throws SQLException exception while reading the page
+     * @throws IOException exception while writing the response
+     */
+    private void writePage(HttpServletRequest req, HttpServletResponse resp, PatientFilter filter, PatientFields fields, int from,
+                           Integer afterId, int limits) throws SQLException, IOException {
+        List<Patient> page = new ArrayList<>(limits);
+        if (afterId != null) {
+            store.listAfter(filter, fields, afterId, limits, page::add);
+            // the page is read, so a full page gives the cursor of the next one without another query
+            if (limits > 0 && page.size() == limits) {
+                resp.setHeader(NEXT_CURSOR_HEADER, encodeCursor(page.get(limits - 1).getId()));
+            }
+        } else {
+            store.list(filter, fields, from, limits, page::add);
+        }
+        String etag = ETags.of(page);
+        resp.setHeader(ETags.ETAG, etag);
+        if (ETags.notModified(req, etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        resp.setContentType(CODEC.contentType());
+        PatientCodec.ListWriter writer = CODEC.beginList(resp.getWriter());
+        for (Patient patient : page) {
+            writer.write(patient);
+        }
+        writer.end();
+        resp.getWriter().println();
+    }
+
+    /**
+     * Helper function to read the filter query parameters
+     * @param req Servlet request
+     * @param resp Servlet response, 400 if a parameter is not valid
+     * @return the filter, null if a parameter is not valid
+     * @throws IOException exception while writing the response
+     */
+    static PatientFilter parseFilter(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        PatientFilter filter = new PatientFilter();
+        if (req.getParameterMap().containsKey(PROVIDER_NPI)) {
+            try {
+                // must be integer
+                filter.setProviderNpi(Integer.parseInt(req.getParameter(PROVIDER_NPI)));
+            } catch (RuntimeException e) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().println(PROVIDER_NPI + " is not a valid number");
+                return null;
+            }
+        }
+        if (!Strings.isBlank(req.getParameter(CHIEF_COMPLAINT))) {
+            filter.setChiefComplaint(req.getParameter(CHIEF_COMPLAINT));
+        }
+        if (!Strings.isBlank(req.getParameter(PATIENT_PREFIX))) {
+            filter.setPatientPrefix(req.getParameter(PATIENT_PREFIX));
+        }
+        // ISO dates, 2000-01-02
+        String[] dateParameters = {DOB_FROM, DOB_TO, ENCOUNTER_DATE_FROM, ENCOUNTER_DATE_TO};
+        LocalDate[] dates = new LocalDate[dateParameters.length];
+        for (int i = 0; i < dateParameters.length; i++) {
+            String value = req.getParameter(dateParameters[i]);
+            if (value == null) {
+                continue;
+            }
+            try {
+                dates[i] = LocalDate.parse(value);
+            } catch (DateTimeParseException e) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().println(dateParameters[i] + " is not a valid date, expected yyyy-MM-dd");
+                return null;
+            }
+        }
+        filter.setDobFrom(dates[0]);
+        filter.setDobTo(dates[1]);
+        filter.setEncounterDateFrom(dates[2]);
+        filter.setEncounterDateTo(dates[3]);
+        return filter;
+    }
+
+    /**
+     * Helper function to read the fields query parameter
+     * @param req Servlet request
+     * @param resp Servlet response, 400 if a field is not valid
+     * @param defaults the projection without the parameter
+     * @return the projection, null if a field is not valid
+     * @throws IOException exception while writing the response
+     */
+    static PatientFields parseFields(HttpServletRequest req, HttpServletResponse resp, PatientFields defaults) throws IOException {
+        String value = req.getParameter(FIELDS);
+        if (Strings.isBlank(value)) {
+            return defaults;
+        }
+        try {
+            return PatientFields.parse(value);
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().println(FIELDS + " is not valid, " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param lastId the id of the last record of a page
+     * @return the opaque cursor of the next page
+     */
+    static String encodeCursor(int lastId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((CURSOR_PREFIX + lastId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor the cursor query parameter, blank for the first page
+     * @return the id the page starts after, null if the cursor is not valid
+     */
+    static Integer decodeCursor(String cursor) {
+        if (Strings.isBlank(cursor)) {
+            return 0;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith(CURSOR_PREFIX)) {
+                return null;
+            }
+            int lastId = Integer.parseInt(decoded.substring(CURSOR_PREFIX.length()));
+            return lastId < 0 ? null : lastId;
+        } catch (IllegalArgumentException e) {
+            // not base64 or not a number
+            return null;
+        }
+    }
 }
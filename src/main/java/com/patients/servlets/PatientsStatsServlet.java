@@ -0,0 +1,56 @@
+package com.patients.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.patients.stats.PatientStats;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * PatientsStatsServlet for endpoint /patients/stats, encounter counts for dashboards
+ */
+public class PatientsStatsServlet extends AsyncServlet {
+
+    // the in-process counts of the patients
+    private final PatientStats stats;
+
+    /**
+     * @param stats the in-process counts of the patients
+     */
+    public PatientsStatsServlet(PatientStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * GET /patients/stats, the number of patients per provider npi, per chief complaint and per encounter month.
+     * The counts are kept in memory, so the cost depends on the number of groups, not on the number of patients.
+     * Response: {"total": 3, "providerNpi": {"4": 2, "7": 1}, "chiefComplaint": {"Cough": 3}, "encounterMonth": {"2022-04": 3}}
+     * @param req Servlet request
+     * @param resp Servlet response
+     * @throws IOException Servlet exception
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        PatientStats.Snapshot snapshot = stats.snapshot();
+        resp.setContentType("application/json;charset=utf-8");
+        JsonWriter out = new JsonWriter(resp.getWriter());
+        out.beginObject();
+        out.name("total").value(snapshot.getTotal());
+        writeCounts(out.name("providerNpi"), snapshot.getByProviderNpi());
+        writeCounts(out.name("chiefComplaint"), snapshot.getByChiefComplaint());
+        writeCounts(out.name("encounterMonth"), snapshot.getByEncounterMonth());
+        out.endObject();
+        out.flush();
+        resp.getWriter().println();
+    }
+
+    private static void writeCounts(JsonWriter out, Map<?, Long> counts) throws IOException {
+        out.beginObject();
+        for (Map.Entry<?, Long> entry : counts.entrySet()) {
+            out.name(String.valueOf(entry.getKey())).value(entry.getValue());
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,222 @@
+package com.patients.stats;
+
+import com.patients.model.Patient;
+import com.patients.store.PatientListener;
+import com.patients.store.PatientStore;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Encounter counts per provider npi, per chief complaint and per encounter month, kept up to date as a PatientListener.
+ * Every patient is counted once in each group it has a value for, so updates and deletes move or remove its counts.
+ * Reading the counts costs O(groups), the table is only scanned by build().
+ */
+public class PatientStats implements PatientListener {
+
+    // patients per page while building
+    private static final int BUILD_PAGE_SIZE = 10000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Aggregates current = new Aggregates();
+
+    // writes seen while build() scans the store, replayed on the new aggregates; null when not building
+    private List<Consumer<Aggregates>> journal = null;
+
+    /**
+     * Replace the counts by the ones of all the patients of the store.
+     * Writes are not blocked while the store is scanned: they are applied to the current counts and replayed
+     * on the new ones, which is safe since every write replaces the counts of one id.
+     * @param store storage of the patients
+     * @throws SQLException storage failure
+     * @throws IOException not thrown, see PatientStore.RowHandler
+     */
+    public void build(PatientStore store) throws SQLException, IOException {
+        Aggregates fresh = new Aggregates();
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                throw new IllegalStateException("already building");
+            }
+            journal = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            store.forEach(BUILD_PAGE_SIZE, fresh::put);
+        } catch (SQLException | IOException | RuntimeException e) {
+            lock.writeLock().lock();
+            journal = null;
+            lock.writeLock().unlock();
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            for (Consumer<Aggregates> write : journal) {
+                write.accept(fresh);
+            }
+            current = fresh;
+            journal = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void inserted(Patient patient) {
+        apply(aggregates -> aggregates.put(patient));
+    }
+
+    @Override
+    public void updated(Patient patient) {
+        apply(aggregates -> aggregates.put(patient));
+    }
+
+    @Override
+    public void deleted(int id) {
+        apply(aggregates -> aggregates.remove(id));
+    }
+
+    private void apply(Consumer<Aggregates> write) {
+        lock.writeLock().lock();
+        try {
+            write.accept(current);
+            if (journal != null) {
+                journal.add(write);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a consistent copy of the counts, groups sorted by key
+     */
+    public Snapshot snapshot() {
+        lock.readLock().lock();
+        try {
+            Map<String, Long> byMonth = new TreeMap<>();
+            current.byMonth.forEach((month, count) -> byMonth.put(YearMonth.of(month / 12, month % 12 + 1).toString(), count));
+            return new Snapshot(current.patients.size(), new TreeMap<>(current.byNpi), new TreeMap<>(current.byComplaint), byMonth);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts of one point in time
+     */
+    public static class Snapshot {
+        private final long total;
+        private final Map<Integer, Long> byProviderNpi;
+        private final Map<String, Long> byChiefComplaint;
+        private final Map<String, Long> byEncounterMonth;
+
+        Snapshot(long total, Map<Integer, Long> byProviderNpi, Map<String, Long> byChiefComplaint, Map<String, Long> byEncounterMonth) {
+            this.total = total;
+            this.byProviderNpi = byProviderNpi;
+            this.byChiefComplaint = byChiefComplaint;
+            this.byEncounterMonth = byEncounterMonth;
+        }
+
+        /**
+         * @return number of patients
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return provider npi -> number of patients
+         */
+        public Map<Integer, Long> getByProviderNpi() {
+            return byProviderNpi;
+        }
+
+        /**
+         * @return chief complaint -> number of patients, patients without one are not counted
+         */
+        public Map<String, Long> getByChiefComplaint() {
+            return byChiefComplaint;
+        }
+
+        /**
+         * @return encounter month (yyyy-MM) -> number of patients, patients without an encounter date are not counted
+         */
+        public Map<String, Long> getByEncounterMonth() {
+            return byEncounterMonth;
+        }
+    }
+
+    /**
+     * The counts, and the groups of every patient to take it out of them
+     */
+    private static final class Aggregates {
+        // id -> the groups it is counted in
+        private final Map<Integer, Groups> patients = new HashMap<>();
+        private final Map<Integer, Long> byNpi = new HashMap<>();
+        private final Map<String, Long> byComplaint = new HashMap<>();
+        // months since year 0
+        private final Map<Integer, Long> byMonth = new HashMap<>();
+
+        void put(Patient patient) {
+            remove(patient.getId());
+            Groups groups = new Groups(patient);
+            patients.put(patient.getId(), groups);
+            count(byNpi, groups.npi, 1);
+            count(byComplaint, groups.complaint, 1);
+            count(byMonth, groups.month, 1);
+        }
+
+        void remove(int id) {
+            Groups groups = patients.remove(id);
+            if (groups != null) {
+                count(byNpi, groups.npi, -1);
+                count(byComplaint, groups.complaint, -1);
+                count(byMonth, groups.month, -1);
+            }
+        }
+
+        private static <K> void count(Map<K, Long> counts, K key, long delta) {
+            if (key != null) {
+                // empty groups are dropped
+                counts.compute(key, (k, count) -> {
+                    long total = count == null ? delta : count + delta;
+                    return total == 0 ? null : total;
+                });
+            }
+        }
+    }
+
+    /**
+     * Groups of one patient, null when it has no value
+     */
+    private static final class Groups {
+        private final Integer npi;
+        private final String complaint;
+        private final Integer month;
+
+        private Groups(Patient patient) {
+            this.npi = patient.getProviderNpi();
+            this.complaint = patient.getChiefComplaint();
+            if (patient.getEncounterDate() == null) {
+                this.month = null;
+            } else {
+                // at midnight of the default time zone, like the DATE column
+                LocalDate date = new java.sql.Date(patient.getEncounterDate().getTime()).toLocalDate();
+                this.month = date.getYear() * 12 + date.getMonthValue() - 1;
+            }
+        }
+    }
+}
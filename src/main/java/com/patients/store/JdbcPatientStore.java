@@ -0,0 +1,259 @@
+package com.patients.store;
+
+import com.patients.database.BatchInserter;
+import com.patients.database.Database;
+import com.patients.database.ProviderDictionary;
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * MySQL store, every call borrows a connection from the Database pool.
+ * Provider names are kept in the providers table by NPI, and resolved through the shared ProviderDictionary.
+ */
+public class JdbcPatientStore implements PatientStore {
+
+    private static final String COLUMNS = PatientFields.ALL.columns();
+
+    // Integer.MIN_VALUE makes MySQL Connector/J stream a forward only, read only result set row by row
+    private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    private final ProviderDictionary dictionary = ProviderDictionary.shared();
+
+    JdbcPatientStore() {
+    }
+
+    @Override
+    public Patient get(int id) throws SQLException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement select = conn.prepareStatement("select " + COLUMNS + " from patients where id = ?")) {
+            select.setInt(1, id);
+            Patient patient;
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                patient = Patient.rsToPatient(rs);
+            }
+            dictionary.refresh(conn);
+            // maybe a provider written by another process since the last load
+            dictionary.lookup(conn, patient.getProviderNpi());
+            return resolve(patient, PatientFields.ALL);
+        }
+    }
+
+    @Override
+    public int insert(Patient patient) throws SQLException {
+        try (Connection conn = Database.getConnection()) {
+            dictionary.refresh(conn);
+            if (!dictionary.changes(patient.getProviderNpi(), patient.getProvider())) {
+                int id = patient.insert(conn);
+                resolveProvider(conn, patient);
+                return id;
+            }
+            // the new provider name and the row are committed together
+            conn.setAutoCommit(false);
+            try {
+                dictionary.write(conn, patient.getProviderNpi(), patient.getProvider());
+                int id = patient.insert(conn);
+                conn.commit();
+                dictionary.put(patient.getProviderNpi(), patient.getProvider());
+                return id;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public boolean update(Patient patient) throws SQLException {
+        try (Connection conn = Database.getConnection()) {
+            dictionary.refresh(conn);
+            if (!dictionary.changes(patient.getProviderNpi(), patient.getProvider())) {
+                boolean found = patient.update(conn);
+                resolveProvider(conn, patient);
+                return found;
+            }
+            // the new provider name and the row are committed together, nothing is renamed when the id does not exist
+            conn.setAutoCommit(false);
+            try {
+                dictionary.write(conn, patient.getProviderNpi(), patient.getProvider());
+                if (!patient.update(conn)) {
+                    conn.rollback();
+                    return false;
+                }
+                conn.commit();
+                dictionary.put(patient.getProviderNpi(), patient.getProvider());
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public void delete(int id) throws SQLException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement delete = conn.prepareStatement("delete from patients where id = ?")) {
+            delete.setInt(1, id);
+            delete.execute();
+        }
+    }
+
+    @Override
+    public void list(PatientFilter filter, PatientFields fields, int from, int limits, RowHandler handler) throws SQLException, IOException {
+        PatientQuery query = new PatientQuery(filter);
+        stream("select " + fields.columns() + " from patients" + query.where() + " order by id limit ?, ?", query, fields, from, limits, handler);
+    }
+
+    @Override
+    public void listAfter(PatientFilter filter, PatientFields fields, int afterId, int limits, RowHandler handler) throws SQLException, IOException {
+        // keyset pagination, an index range scan on the primary key or on a secondary index (which ends with the primary key)
+        PatientQuery query = new PatientQuery(filter).afterId(afterId);
+        stream("select " + fields.columns() + " from patients" + query.where() + " order by id limit ?", query, fields, null, limits, handler);
+    }
+
+    @Override
+    public Batch beginBatch(int batchSize) throws SQLException {
+        Connection conn = Database.getConnection();
+        try {
+            return new JdbcBatch(conn, BatchInserter.inTransaction(conn, batchSize));
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Hand the rows to the handler while the ResultSet is iterated, so that memory does not grow with the number of rows
+     */
+    private void stream(String sql, PatientQuery query, PatientFields fields, Integer from, int limits, RowHandler handler)
+            throws SQLException, IOException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement select = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            int index = query.bind(select);
+            if (from != null) {
+                select.setInt(index++, from);
+            }
+            select.setInt(index, limits);
+            // the streamed rows are resolved in process, the connection cannot run another query until they are read
+            dictionary.refresh(conn);
+            // MySQL Connector/J streams the rows one by one instead of loading the whole result set
+            select.setFetchSize(STREAMING_FETCH_SIZE);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    handler.row(resolve(fields.isAll() ? Patient.rsToPatient(rs) : toPatient(rs, fields), fields));
+                }
+            }
+        }
+    }
+
+    /**
+     * A written record without a provider name takes the name of its NPI, as a read of it would
+     */
+    private void resolveProvider(Connection conn, Patient patient) throws SQLException {
+        if (patient.getProvider() == null) {
+            dictionary.lookup(conn, patient.getProviderNpi());
+            patient.setProvider(dictionary.get(patient.getProviderNpi()));
+        }
+    }
+
+    /**
+     * Set the provider name from the dictionary and intern the chief complaint
+     * @param p a patient read with the fields
+     * @return the patient
+     */
+    private Patient resolve(Patient p, PatientFields fields) {
+        if (fields.contains(PatientFields.Field.PROVIDER)) {
+            p.setProvider(dictionary.get(p.getProviderNpi()));
+            if (!fields.contains(PatientFields.Field.PROVIDER_NPI)) {
+                // only read as the key of the name
+                p.setProviderNpi(null);
+            }
+        }
+        p.setChiefComplaint(dictionary.internChiefComplaint(p.getChiefComplaint()));
+        return p;
+    }
+
+    /**
+     * Read a row of a projected select, by column index in the order of the select list
+     * @return the patient with the fields of the projection, the others are null
+     */
+    static Patient toPatient(ResultSet rs, PatientFields fields) throws SQLException {
+        Patient p = new Patient();
+        int index = 1;
+        for (PatientFields.Field field : fields.selected()) {
+            switch (field) {
+                case ID:
+                    p.setId(rs.getInt(index));
+                    break;
+                case PATIENT:
+                    p.setPatient(rs.getString(index));
+                    break;
+                case DOB:
+                    p.setDob(rs.getDate(index));
+                    break;
+                case ENCOUNTER_DATE:
+                    p.setEncounterDate(rs.getDate(index));
+                    break;
+                case ENCOUNTER_NOTE:
+                    p.setEncounterNote(rs.getString(index));
+                    break;
+                case CHIEF_COMPLAINT:
+                    p.setChiefComplaint(rs.getString(index));
+                    break;
+                case PROVIDER_NPI:
+                    p.setProviderNpi(rs.getInt(index));
+                    break;
+                default:
+                    throw new IllegalArgumentException(field.name());
+            }
+            index++;
+        }
+        return p;
+    }
+
+    /**
+     * A transaction of batched inserts on its own connection
+     */
+    private static final class JdbcBatch implements Batch {
+        private final Connection conn;
+        private final BatchInserter inserter;
+
+        private JdbcBatch(Connection conn, BatchInserter inserter) {
+            this.conn = conn;
+            this.inserter = inserter;
+        }
+
+        @Override
+        public void add(Patient patient) throws SQLException {
+            inserter.add(patient);
+        }
+
+        @Override
+        public List<Integer> commit() throws SQLException {
+            inserter.commit();
+            return inserter.getGeneratedKeys();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                inserter.close();
+            } finally {
+                conn.close();
+            }
+        }
+    }
+}
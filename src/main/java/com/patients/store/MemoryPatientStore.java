@@ -0,0 +1,317 @@
+package com.patients.store;
+
+import com.patients.database.ProviderDictionary;
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process store, nothing is persisted. Ids are generated like AUTO_INCREMENT and are the index of
+ * column arrays, so a lookup is an array access and a record costs a few primitives and string references:
+ * dates are epoch days, provider names are kept once per NPI like the providers table, and chief complaints are interned.
+ * Reads share a read-write lock with the writers; handlers are called after the lock is released.
+ */
+public class MemoryPatientStore implements PatientStore {
+
+    // epoch day of a null date
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ProviderDictionary dictionary = new ProviderDictionary();
+
+    // columns by id, index 0 is not used; a null patient marks a free (never used or deleted) id; guarded by lock
+    private String[] patients = new String[INITIAL_CAPACITY];
+    private int[] dobs = new int[INITIAL_CAPACITY];
+    private int[] encounterDates = new int[INITIAL_CAPACITY];
+    private String[] encounterNotes = new String[INITIAL_CAPACITY];
+    private String[] chiefComplaints = new String[INITIAL_CAPACITY];
+    private int[] providerNpis = new int[INITIAL_CAPACITY];
+
+    // next generated id, ids are never reused; guarded by lock
+    private int nextId = 1;
+    private int size = 0;
+
+    MemoryPatientStore() {
+    }
+
+    @Override
+    public Patient get(int id) {
+        lock.readLock().lock();
+        try {
+            return exists(id) ? toPatient(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int insert(Patient patient) throws SQLException {
+        check(patient);
+        lock.writeLock().lock();
+        try {
+            int id = nextId++;
+            ensureCapacity(id);
+            set(id, patient);
+            size++;
+            patient.setId(id);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean update(Patient patient) throws SQLException {
+        check(patient);
+        lock.writeLock().lock();
+        try {
+            if (!exists(patient.getId())) {
+                return false;
+            }
+            set(patient.getId(), patient);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(int id) {
+        lock.writeLock().lock();
+        try {
+            if (exists(id)) {
+                patients[id] = null;
+                encounterNotes[id] = null;
+                chiefComplaints[id] = null;
+                size--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void list(PatientFilter filter, PatientFields fields, int from, int limits, RowHandler handler) throws IOException {
+        List<Patient> page = new ArrayList<>(Math.max(0, limits));
+        lock.readLock().lock();
+        try {
+            int skipped = 0;
+            for (int id = 1; id < nextId && page.size() < limits; id++) {
+                if (matches(id, filter) && skipped++ >= from) {
+                    page.add(toPatient(id, fields));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Patient patient : page) {
+            handler.row(patient);
+        }
+    }
+
+    @Override
+    public void listAfter(PatientFilter filter, PatientFields fields, int afterId, int limits, RowHandler handler) throws IOException {
+        List<Patient> page = new ArrayList<>(Math.max(0, limits));
+        lock.readLock().lock();
+        try {
+            for (int id = Math.max(afterId, 0) + 1; id < nextId && page.size() < limits; id++) {
+                if (matches(id, filter)) {
+                    page.add(toPatient(id, fields));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Patient patient : page) {
+            handler.row(patient);
+        }
+    }
+
+    @Override
+    public Batch beginBatch(int batchSize) {
+        return new Batch() {
+            private final List<Patient> pending = new ArrayList<>();
+
+            @Override
+            public void add(Patient patient) throws SQLException {
+                check(patient);
+                pending.add(patient);
+            }
+
+            @Override
+            public List<Integer> commit() throws SQLException {
+                List<Integer> ids = new ArrayList<>(pending.size());
+                // all the patients are inserted at once
+                lock.writeLock().lock();
+                try {
+                    ensureCapacity(nextId + pending.size());
+                    for (Patient patient : pending) {
+                        int id = nextId++;
+                        set(id, patient);
+                        size++;
+                        patient.setId(id);
+                        ids.add(id);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                pending.clear();
+                return ids;
+            }
+
+            @Override
+            public void close() {
+                pending.clear();
+            }
+        };
+    }
+
+    /**
+     * @return number of patients
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same constraints as the NOT NULL columns of the patients table
+     */
+    private static void check(Patient patient) throws SQLException {
+        if (patient.getPatient() == null || patient.getProviderNpi() == null) {
+            throw new SQLException("patient and providerNpi cannot be null");
+        }
+    }
+
+    /**
+     * Evaluated on the columns, without building a Patient. There are no secondary indexes, a filtered page is a scan.
+     * @return true if the id exists and matches the filter
+     */
+    private boolean matches(int id, PatientFilter filter) {
+        if (patients[id] == null) {
+            return false;
+        }
+        if (filter.isEmpty()) {
+            return true;
+        }
+        if (filter.getProviderNpi() != null && providerNpis[id] != filter.getProviderNpi()) {
+            return false;
+        }
+        if (filter.getChiefComplaint() != null && !filter.getChiefComplaint().equalsIgnoreCase(chiefComplaints[id])) {
+            return false;
+        }
+        String prefix = filter.getPatientPrefix();
+        if (prefix != null && !patients[id].regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return false;
+        }
+        return inRange(dobs[id], filter.getDobFrom(), filter.getDobTo())
+                && inRange(encounterDates[id], filter.getEncounterDateFrom(), filter.getEncounterDateTo());
+    }
+
+    /**
+     * @return true if there is no range, or if the date is set and in the inclusive range
+     */
+    private static boolean inRange(int epochDay, LocalDate from, LocalDate to) {
+        if (from == null && to == null) {
+            return true;
+        }
+        return epochDay != NO_DATE
+                && (from == null || epochDay >= from.toEpochDay())
+                && (to == null || epochDay <= to.toEpochDay());
+    }
+
+    private boolean exists(int id) {
+        return id > 0 && id < nextId && patients[id] != null;
+    }
+
+    private void set(int id, Patient patient) throws SQLException {
+        dictionary.put(patient.getProviderNpi(), patient.getProvider());
+        patients[id] = patient.getPatient();
+        dobs[id] = toEpochDay(patient.getDob());
+        encounterDates[id] = toEpochDay(patient.getEncounterDate());
+        encounterNotes[id] = patient.getEncounterNote();
+        chiefComplaints[id] = dictionary.internChiefComplaint(patient.getChiefComplaint());
+        providerNpis[id] = patient.getProviderNpi();
+        // a record without a name takes the name of its NPI, as a read of it would
+        patient.setProvider(dictionary.get(patient.getProviderNpi()));
+    }
+
+    private Patient toPatient(int id) {
+        return toPatient(id, PatientFields.ALL);
+    }
+
+    /**
+     * @return the patient with the fields of the projection, the others are null
+     */
+    private Patient toPatient(int id, PatientFields fields) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        if (fields.contains(PatientFields.Field.PATIENT)) {
+            patient.setPatient(patients[id]);
+        }
+        if (fields.contains(PatientFields.Field.DOB)) {
+            patient.setDob(toDate(dobs[id]));
+        }
+        if (fields.contains(PatientFields.Field.ENCOUNTER_DATE)) {
+            patient.setEncounterDate(toDate(encounterDates[id]));
+        }
+        if (fields.contains(PatientFields.Field.PROVIDER)) {
+            patient.setProvider(dictionary.get(providerNpis[id]));
+        }
+        if (fields.contains(PatientFields.Field.ENCOUNTER_NOTE)) {
+            patient.setEncounterNote(encounterNotes[id]);
+        }
+        if (fields.contains(PatientFields.Field.CHIEF_COMPLAINT)) {
+            patient.setChiefComplaint(chiefComplaints[id]);
+        }
+        if (fields.contains(PatientFields.Field.PROVIDER_NPI)) {
+            patient.setProviderNpi(providerNpis[id]);
+        }
+        return patient;
+    }
+
+    /**
+     * Grow the columns so that the id fits
+     */
+    private void ensureCapacity(int id) {
+        if (id < patients.length) {
+            return;
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) patients.length * 2, (long) id + 1));
+        patients = Arrays.copyOf(patients, capacity);
+        dobs = Arrays.copyOf(dobs, capacity);
+        encounterDates = Arrays.copyOf(encounterDates, capacity);
+        encounterNotes = Arrays.copyOf(encounterNotes, capacity);
+        chiefComplaints = Arrays.copyOf(chiefComplaints, capacity);
+        providerNpis = Arrays.copyOf(providerNpis, capacity);
+    }
+
+    /**
+     * @param date java.util.Date or java.sql.Date at midnight of the default time zone, like the DATE columns
+     */
+    private static int toEpochDay(java.util.Date date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        Date sqlDate = date instanceof Date ? (Date) date : new Date(date.getTime());
+        return (int) sqlDate.toLocalDate().toEpochDay();
+    }
+
+    private static Date toDate(int epochDay) {
+        return epochDay == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+}
@@ -0,0 +1,147 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PatientStore that tells its listeners about every successful write, so that in-process views of the patients
+ * (search index, aggregates) are maintained incrementally instead of being recomputed from the table.
+ * Writes made by other processes, e.g. the CSV loader, are only seen when the views are rebuilt.
+ * An update or a delete and its notification hold the lock of the id, so that the listeners see the writes of one id
+ * in the order of the table. An inserted id needs no lock, it is not given to any other writer before insert() returns.
+ */
+public class ObservedPatientStore implements PatientStore {
+
+    // number of locks the ids are spread over, writes of ids sharing a lock wait for each other
+    private static final int LOCK_STRIPES = 256;
+
+    private final PatientStore store;
+    private final List<PatientListener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * @param store the store doing the work
+     */
+    public ObservedPatientStore(PatientStore store) {
+        this.store = store;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param listener receives the next writes
+     */
+    public void addListener(PatientListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the store doing the work, writes made on it directly are not observed
+     */
+    public PatientStore getStore() {
+        return store;
+    }
+
+    @Override
+    public Patient get(int id) throws SQLException {
+        return store.get(id);
+    }
+
+    @Override
+    public int insert(Patient patient) throws SQLException {
+        int id = store.insert(patient);
+        for (PatientListener listener : listeners) {
+            listener.inserted(patient);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean update(Patient patient) throws SQLException {
+        ReentrantLock lock = lockOf(patient.getId());
+        lock.lock();
+        try {
+            boolean found = store.update(patient);
+            if (found) {
+                for (PatientListener listener : listeners) {
+                    listener.updated(patient);
+                }
+            }
+            return found;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(int id) throws SQLException {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            store.delete(id);
+            for (PatientListener listener : listeners) {
+                listener.deleted(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the lock of the writes of the id
+     */
+    private ReentrantLock lockOf(int id) {
+        return locks[Math.floorMod(id, LOCK_STRIPES)];
+    }
+
+    @Override
+    public void list(PatientFilter filter, PatientFields fields, int from, int limits, RowHandler handler) throws SQLException, IOException {
+        store.list(filter, fields, from, limits, handler);
+    }
+
+    @Override
+    public void listAfter(PatientFilter filter, PatientFields fields, int afterId, int limits, RowHandler handler) throws SQLException, IOException {
+        store.listAfter(filter, fields, afterId, limits, handler);
+    }
+
+    @Override
+    public Batch beginBatch(int batchSize) throws SQLException {
+        Batch batch = store.beginBatch(batchSize);
+        return new Batch() {
+            private final List<Patient> added = new ArrayList<>();
+
+            @Override
+            public void add(Patient patient) throws SQLException {
+                batch.add(patient);
+                added.add(patient);
+            }
+
+            @Override
+            public List<Integer> commit() throws SQLException {
+                List<Integer> ids = batch.commit();
+                for (int i = 0; i < added.size(); i++) {
+                    Patient patient = added.get(i);
+                    patient.setId(ids.get(i));
+                    for (PatientListener listener : listeners) {
+                        listener.inserted(patient);
+                    }
+                }
+                added.clear();
+                return ids;
+            }
+
+            @Override
+            public void close() throws SQLException {
+                added.clear();
+                batch.close();
+            }
+        };
+    }
+}
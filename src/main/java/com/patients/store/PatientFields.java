@@ -0,0 +1,176 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Projection of the patient records, the fields read from the store and written to the response.
+ * The id is always part of it, it is the key of the cursor, of the ETag and of GET /patient.
+ * Immutable, shared across requests.
+ */
+public final class PatientFields {
+
+    /**
+     * The fields of a patient, with their JSON name and their column in patients.sql.
+     * The provider has no column, its name is resolved from provider_npi (see ProviderDictionary).
+     */
+    public enum Field {
+        ID("id", "id"),
+        PATIENT("patient", "patient"),
+        DOB("dob", "dob"),
+        ENCOUNTER_DATE("encounterDate", "encounter_date"),
+        PROVIDER("provider", null),
+        ENCOUNTER_NOTE("encounterNote", "encounter_note"),
+        CHIEF_COMPLAINT("chiefComplaint", "chief_complaint"),
+        PROVIDER_NPI("providerNpi", "provider_npi");
+
+        private final String jsonName;
+        private final String column;
+
+        Field(String jsonName, String column) {
+            this.jsonName = jsonName;
+            this.column = column;
+        }
+
+        public String getJsonName() {
+            return jsonName;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+    }
+
+    /**
+     * Every field
+     */
+    public static final PatientFields ALL = new PatientFields(EnumSet.allOf(Field.class));
+
+    /**
+     * Every field but the encounter note, the largest column by far, e.g. for list views
+     */
+    public static final PatientFields WITHOUT_NOTE = new PatientFields(EnumSet.complementOf(EnumSet.of(Field.ENCOUNTER_NOTE)));
+
+    // value of fields= for every field
+    private static final String ALL_VALUE = "all";
+
+    private final Set<Field> fields;
+    // the fields with a column to read, in the order of Field, for the select list and the ResultSet indexes
+    private final Field[] selected;
+    private final String columns;
+
+    private PatientFields(EnumSet<Field> fields) {
+        fields.add(Field.ID);
+        this.fields = fields;
+        EnumSet<Field> selected = EnumSet.copyOf(fields);
+        if (selected.remove(Field.PROVIDER)) {
+            // the key of the name
+            selected.add(Field.PROVIDER_NPI);
+        }
+        this.selected = selected.toArray(new Field[0]);
+        List<String> names = new ArrayList<>(this.selected.length);
+        for (Field field : this.selected) {
+            names.add(field.getColumn());
+        }
+        this.columns = String.join(", ", names);
+    }
+
+    /**
+     * @param value the fields= query parameter: "all", or JSON names separated by commas, e.g. "patient,dob"
+     * @return the projection, with the id
+     * @throws IllegalArgumentException if a name is not a field
+     */
+    public static PatientFields parse(String value) {
+        if (value.trim().equalsIgnoreCase(ALL_VALUE)) {
+            return ALL;
+        }
+        EnumSet<Field> fields = EnumSet.of(Field.ID);
+        for (String name : value.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            fields.add(byJsonName(trimmed));
+        }
+        if (fields.size() == Field.values().length) {
+            return ALL;
+        }
+        return new PatientFields(fields);
+    }
+
+    private static Field byJsonName(String name) {
+        for (Field field : Field.values()) {
+            if (field.getJsonName().equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("unknown field " + name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return true if the field is part of the projection
+     */
+    public boolean contains(Field field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * @return true if every field is part of the projection
+     */
+    public boolean isAll() {
+        return fields.size() == Field.values().length;
+    }
+
+    /**
+     * @return the fields read from the columns, in the order of the select list
+     */
+    Field[] selected() {
+        return selected;
+    }
+
+    /**
+     * @return the select list of the projection, e.g. "id, patient, dob"
+     */
+    String columns() {
+        return columns;
+    }
+
+    /**
+     * @param patient a complete record
+     * @return the record itself if the projection is all, else a copy with the other fields null
+     */
+    public Patient project(Patient patient) {
+        if (patient == null || isAll()) {
+            return patient;
+        }
+        Patient projected = new Patient();
+        projected.setId(patient.getId());
+        if (contains(Field.PATIENT)) {
+            projected.setPatient(patient.getPatient());
+        }
+        if (contains(Field.DOB)) {
+            projected.setDob(patient.getDob());
+        }
+        if (contains(Field.ENCOUNTER_DATE)) {
+            projected.setEncounterDate(patient.getEncounterDate());
+        }
+        if (contains(Field.PROVIDER)) {
+            projected.setProvider(patient.getProvider());
+        }
+        if (contains(Field.ENCOUNTER_NOTE)) {
+            projected.setEncounterNote(patient.getEncounterNote());
+        }
+        if (contains(Field.CHIEF_COMPLAINT)) {
+            projected.setChiefComplaint(patient.getChiefComplaint());
+        }
+        if (contains(Field.PROVIDER_NPI)) {
+            projected.setProviderNpi(patient.getProviderNpi());
+        }
+        return projected;
+    }
+}
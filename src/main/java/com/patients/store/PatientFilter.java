@@ -0,0 +1,83 @@
+package com.patients.store;
+
+import java.time.LocalDate;
+
+/**
+ * Conditions of a list of patients, all of them must match. A null condition is not applied.
+ * Date ranges are inclusive; a patient without the date does not match a range on it.
+ * Text conditions are case insensitive, like the default MySQL collation.
+ */
+public class PatientFilter {
+
+    private Integer providerNpi;
+    private String chiefComplaint;
+    private String patientPrefix;
+    private LocalDate dobFrom;
+    private LocalDate dobTo;
+    private LocalDate encounterDateFrom;
+    private LocalDate encounterDateTo;
+
+    /**
+     * @return true if no condition is set
+     */
+    public boolean isEmpty() {
+        return providerNpi == null && chiefComplaint == null && patientPrefix == null
+                && dobFrom == null && dobTo == null && encounterDateFrom == null && encounterDateTo == null;
+    }
+
+    public Integer getProviderNpi() {
+        return providerNpi;
+    }
+
+    public void setProviderNpi(Integer providerNpi) {
+        this.providerNpi = providerNpi;
+    }
+
+    public String getChiefComplaint() {
+        return chiefComplaint;
+    }
+
+    public void setChiefComplaint(String chiefComplaint) {
+        this.chiefComplaint = chiefComplaint;
+    }
+
+    public String getPatientPrefix() {
+        return patientPrefix;
+    }
+
+    public void setPatientPrefix(String patientPrefix) {
+        this.patientPrefix = patientPrefix;
+    }
+
+    public LocalDate getDobFrom() {
+        return dobFrom;
+    }
+
+    public void setDobFrom(LocalDate dobFrom) {
+        this.dobFrom = dobFrom;
+    }
+
+    public LocalDate getDobTo() {
+        return dobTo;
+    }
+
+    public void setDobTo(LocalDate dobTo) {
+        this.dobTo = dobTo;
+    }
+
+    public LocalDate getEncounterDateFrom() {
+        return encounterDateFrom;
+    }
+
+    public void setEncounterDateFrom(LocalDate encounterDateFrom) {
+        this.encounterDateFrom = encounterDateFrom;
+    }
+
+    public LocalDate getEncounterDateTo() {
+        return encounterDateTo;
+    }
+
+    public void setEncounterDateTo(LocalDate encounterDateTo) {
+        this.encounterDateTo = encounterDateTo;
+    }
+}
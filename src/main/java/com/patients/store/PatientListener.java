@@ -0,0 +1,25 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+
+/**
+ * Receives the writes made through an ObservedPatientStore, after they succeeded.
+ * Listeners are called on the writing thread and must be thread safe and fast.
+ */
+public interface PatientListener {
+
+    /**
+     * @param patient the inserted patient, with its generated id
+     */
+    void inserted(Patient patient);
+
+    /**
+     * @param patient the new values of the patient
+     */
+    void updated(Patient patient);
+
+    /**
+     * @param id the id of the deleted patient, it may not have existed
+     */
+    void deleted(int id);
+}
@@ -0,0 +1,107 @@
+package com.patients.store;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where clause of a PatientFilter. Column names are constants of this class and every value is a bound parameter,
+ * so request values never become SQL. Each condition can be served by an index of patients.sql.
+ */
+final class PatientQuery {
+
+    // escape character of the LIKE patterns, not a backslash so that it does not depend on NO_BACKSLASH_ESCAPES
+    private static final char LIKE_ESCAPE = '!';
+
+    private final List<String> conditions = new ArrayList<>();
+    private final List<Object> params = new ArrayList<>();
+
+    /**
+     * @param filter the conditions
+     */
+    PatientQuery(PatientFilter filter) {
+        if (filter.getProviderNpi() != null) {
+            and("provider_npi = ?", filter.getProviderNpi());
+        }
+        if (filter.getChiefComplaint() != null) {
+            and("chief_complaint = ?", filter.getChiefComplaint());
+        }
+        if (filter.getPatientPrefix() != null) {
+            // a prefix LIKE is an index range scan
+            and("patient like ? escape '" + LIKE_ESCAPE + "'", escapeLike(filter.getPatientPrefix()) + "%");
+        }
+        if (filter.getDobFrom() != null) {
+            and("dob >= ?", filter.getDobFrom());
+        }
+        if (filter.getDobTo() != null) {
+            and("dob <= ?", filter.getDobTo());
+        }
+        if (filter.getEncounterDateFrom() != null) {
+            and("encounter_date >= ?", filter.getEncounterDateFrom());
+        }
+        if (filter.getEncounterDateTo() != null) {
+            and("encounter_date <= ?", filter.getEncounterDateTo());
+        }
+    }
+
+    /**
+     * Add a condition on the primary key, for keyset pagination
+     * @param afterId rows after this id
+     * @return this
+     */
+    PatientQuery afterId(int afterId) {
+        conditions.add(0, "id > ?");
+        params.add(0, afterId);
+        return this;
+    }
+
+    /**
+     * @return " where a and b", or an empty string without conditions
+     */
+    String where() {
+        return conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+    }
+
+    /**
+     * Bind the parameters of the where clause
+     * @param statement statement prepared with where()
+     * @return the index of the next parameter
+     * @throws SQLException exception during parameter binding
+     */
+    int bind(PreparedStatement statement) throws SQLException {
+        int index = 1;
+        for (Object param : params) {
+            if (param instanceof Integer) {
+                statement.setInt(index++, (Integer) param);
+            } else if (param instanceof LocalDate) {
+                statement.setDate(index++, Date.valueOf((LocalDate) param));
+            } else {
+                statement.setString(index++, (String) param);
+            }
+        }
+        return index;
+    }
+
+    private void and(String condition, Object param) {
+        conditions.add(condition);
+        params.add(param);
+    }
+
+    /**
+     * @return the value with the LIKE wildcards escaped
+     */
+    static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                escaped.append(LIKE_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
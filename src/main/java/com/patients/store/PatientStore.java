@@ -0,0 +1,181 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Storage of the patient records used by the servlets. Implementations are thread safe and shared across requests.
+ * Storage failures are reported as SQLException, whatever the backend.
+ */
+public interface PatientStore {
+
+    /**
+     * @return the MySQL store, through the Database connection pool
+     */
+    static PatientStore jdbc() {
+        return new JdbcPatientStore();
+    }
+
+    /**
+     * @return a new, empty in-process store
+     */
+    static PatientStore memory() {
+        return new MemoryPatientStore();
+    }
+
+    /**
+     * @param id patient id
+     * @return the patient, null if not found
+     * @throws SQLException storage failure
+     */
+    Patient get(int id) throws SQLException;
+
+    /**
+     * @param patient a valid patient, its id is set to the generated id and a missing provider to the name of its NPI
+     * @return the generated id
+     * @throws SQLException storage failure
+     */
+    int insert(Patient patient) throws SQLException;
+
+    /**
+     * @param patient a valid patient with its id, a missing provider is set to the name of its NPI
+     * @return false if there is no patient with its id
+     * @throws SQLException storage failure
+     */
+    boolean update(Patient patient) throws SQLException;
+
+    /**
+     * @param id patient id, an unknown id is ignored
+     * @throws SQLException storage failure
+     */
+    void delete(int id) throws SQLException;
+
+    /**
+     * Page by offset, ordered by id, with every field
+     * @param filter conditions of the patients
+     * @param from number of patients to skip
+     * @param limits page size
+     * @param handler receives the patients of the page
+     * @throws SQLException storage failure
+     * @throws IOException exception of the handler
+     */
+    default void list(PatientFilter filter, int from, int limits, RowHandler handler) throws SQLException, IOException {
+        list(filter, PatientFields.ALL, from, limits, handler);
+    }
+
+    /**
+     * Page by offset, ordered by id
+     * @param filter conditions of the patients
+     * @param fields fields of the patients, the others are not read and are null
+     * @param from number of patients to skip
+     * @param limits page size
+     * @param handler receives the patients of the page
+     * @throws SQLException storage failure
+     * @throws IOException exception of the handler
+     */
+    void list(PatientFilter filter, PatientFields fields, int from, int limits, RowHandler handler) throws SQLException, IOException;
+
+    /**
+     * Page by keyset, ordered by id, with every field
+     * @param filter conditions of the patients
+     * @param afterId the page starts after this id
+     * @param limits page size
+     * @param handler receives the patients of the page
+     * @throws SQLException storage failure
+     * @throws IOException exception of the handler
+     */
+    default void listAfter(PatientFilter filter, int afterId, int limits, RowHandler handler) throws SQLException, IOException {
+        listAfter(filter, PatientFields.ALL, afterId, limits, handler);
+    }
+
+    /**
+     * Page by keyset, ordered by id
+     * @param filter conditions of the patients
+     * @param fields fields of the patients, the others are not read and are null
+     * @param afterId the page starts after this id
+     * @param limits page size
+     * @param handler receives the patients of the page
+     * @throws SQLException storage failure
+     * @throws IOException exception of the handler
+     */
+    void listAfter(PatientFilter filter, PatientFields fields, int afterId, int limits, RowHandler handler) throws SQLException, IOException;
+
+    /**
+     * Visit every patient in id order, one keyset page at a time, e.g. to build an in-process view of the table
+     * @param pageSize number of patients per page
+     * @param handler receives every patient
+     * @throws SQLException storage failure
+     * @throws IOException exception of the handler
+     */
+    default void forEach(int pageSize, RowHandler handler) throws SQLException, IOException {
+        forEach(new PatientFilter(), pageSize, handler);
+    }
+
+    /**
+     * Visit the patients matching a filter in id order, one keyset page at a time. Each page is a new query,
+     * so memory and the time a connection is held are bounded by the page size, whatever the size of the table.
+     * @param filter the conditions, an empty filter for all
+     * @param pageSize number of patients per page
+     * @param handler receives every patient
+     * @throws SQLException storage failure
+     * @throws IOException exception of the handler
+     */
+    default void forEach(PatientFilter filter, int pageSize, RowHandler handler) throws SQLException, IOException {
+        int[] lastId = {0};
+        int[] count = {0};
+        do {
+            count[0] = 0;
+            listAfter(filter, lastId[0], pageSize, patient -> {
+                lastId[0] = patient.getId();
+                count[0]++;
+                handler.row(patient);
+            });
+        } while (count[0] == pageSize);
+    }
+
+    /**
+     * Start inserting many patients at once, all or none
+     * @param batchSize number of patients sent to the storage at once
+     * @return the batch, close() discards it unless it is committed
+     * @throws SQLException storage failure
+     */
+    Batch beginBatch(int batchSize) throws SQLException;
+
+    /**
+     * Receives the patients of a page, one at a time
+     */
+    interface RowHandler {
+        /**
+         * @param patient the next patient
+         * @throws IOException exception while writing the patient
+         */
+        void row(Patient patient) throws IOException;
+    }
+
+    /**
+     * Patients inserted in one transaction
+     */
+    interface Batch extends AutoCloseable {
+        /**
+         * @param patient a valid patient
+         * @throws SQLException storage failure
+         */
+        void add(Patient patient) throws SQLException;
+
+        /**
+         * @return the generated ids, in the order of add()
+         * @throws SQLException storage failure, nothing is inserted
+         */
+        List<Integer> commit() throws SQLException;
+
+        /**
+         * Discard the patients if the batch is not committed
+         * @throws SQLException storage failure
+         */
+        @Override
+        void close() throws SQLException;
+    }
+}
@@ -0,0 +1,46 @@
+package com.patients.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of repeated strings, e.g. provider names, so that equal values are stored once.
+ * Unlike String.intern(), the table is bounded: once it is full, new strings are returned as they are.
+ */
+public final class StringInterner {
+
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    /**
+     * @param maxSize maximum number of distinct strings kept
+     */
+    public StringInterner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param value a string, may be null
+     * @return the canonical instance equal to the value
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String canonical = strings.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (strings.size() >= maxSize) {
+            return value;
+        }
+        canonical = strings.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    /**
+     * @return number of distinct strings kept
+     */
+    public int size() {
+        return strings.size();
+    }
+}
@@ -0,0 +1,56 @@
+package com.patients;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DateParserTest {
+
+    /**
+     * The SimpleDateFormat loop DateParser replaces
+     */
+    private static Long legacyParse(String dateStr) {
+        for (String format : new String[] {"MMMM d, yyyy", "d MMMM yyyy", "MM/d/yyyy", "yyyy/MM/dd"}) {
+            try {
+                SimpleDateFormat f = new SimpleDateFormat(format, Locale.ENGLISH);
+                f.setLenient(false);
+                return f.parse(dateStr).getTime();
+            } catch (ParseException e) {
+                // try next
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testSameAsSimpleDateFormat() {
+        String[] samples = {
+                "January 9, 1940", "February 27, 1952", "Apirl 5, 1970", "jan 9, 1940", "Sep 30, 2001", "June 31, 2001",
+                "5 June 1950", "16 July 1947", "29 February 2000", "29 February 2001", "5 Jun 1950",
+                "10/4/2019", "5/4/2019", "13/4/2019", "02/29/2020", "1/1/12",
+                "1955/08/03", "2019/5/1", "2019/13/1", "2019/03/03",
+                " 10/4/2019", "10/4/2019 trailing", "10-4-2019", "10/4", "June", "5 June", "5June 1950", "January 9 1940",
+                "x", "0/0/0", "12/31/0"
+        };
+        for (String sample : samples) {
+            java.sql.Date parsed = DateParser.parseUncached(sample);
+            assertEquals(legacyParse(sample), parsed == null ? null : parsed.getTime(), sample);
+        }
+    }
+
+    @Test
+    public void testCachedInstancesAreNotShared() {
+        java.sql.Date first = DateParser.parse("January 9, 1940");
+        java.sql.Date second = DateParser.parse("January 9, 1940");
+        assertEquals(first, second);
+        assertNotSame(first, second);
+        assertNull(DateParser.parse("Apirl 5, 1970"));
+        assertNull(DateParser.parse("Apirl 5, 1970"));
+    }
+}
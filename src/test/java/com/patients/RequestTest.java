@@ -1,13 +1,17 @@
 package com.patients;
 
+import com.patients.servlets.PatientsServlet;
+import com.patients.store.PatientStore;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -18,7 +22,8 @@ public class RequestTest {
 
     @BeforeAll
     public static void startServer() throws Exception {
-        server = new JettyServer(8080);
+        // the HTTP suite runs on the in-process store, no MySQL needed
+        server = new JettyServer(8080, JettyServer.Mode.BLOCKING, PatientStore.memory());
         server.start();
     }
 
@@ -78,4 +83,248 @@ public class RequestTest {
                     assertTrue(r.body().contains("id"));
                 }).join();
     }
+
+    @Test
+    public void testPatientsInvalidCursor() {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/patients?cursor=not_a_cursor"))
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenAccept(r -> {
+                    assertEquals(400, r.statusCode());
+                    assertTrue(r.body().contains("cursor"));
+                }).join();
+    }
+
+    @Test
+    public void testPatientsCursorAndFrom() {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/patients?cursor=&from=10"))
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenAccept(r -> {
+                    assertEquals(400, r.statusCode());
+                    assertTrue(r.body().contains("cursor"));
+                }).join();
+    }
+
+    @Test
+    public void testAsyncMode() throws Exception {
+        JettyServer asyncServer = new JettyServer(8081, JettyServer.Mode.ASYNC, PatientStore.memory());
+        asyncServer.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8081/patient?id=not_a_number"))
+                    .build();
+            HttpResponse<String> r = client.send(request, HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, r.statusCode());
+            assertTrue(r.body().contains("id"));
+            // the body is read before the request goes to a JDBC thread
+            HttpResponse<String> created = client.send(HttpRequest.newBuilder(URI.create("http://localhost:8081/patient"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"Zoë Async\", \"providerNpi\": 41}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, created.statusCode());
+            assertTrue(created.body().contains("Zoë Async"));
+            HttpResponse<String> empty = client.send(HttpRequest.newBuilder(URI.create("http://localhost:8081/patient"))
+                    .POST(HttpRequest.BodyPublishers.ofString("")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, empty.statusCode());
+            // a chunked body, without content-length
+            byte[] batch = "[{\"patient\": \"First Async\", \"providerNpi\": 41}, {\"patient\": \"Second Async\"}]".getBytes(StandardCharsets.UTF_8);
+            HttpResponse<String> inserted = client.send(HttpRequest.newBuilder(URI.create("http://localhost:8081/patients/batch"))
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(batch))).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, inserted.statusCode());
+            assertTrue(inserted.body().contains("\"errors\":[{\"index\":1"));
+        } finally {
+            asyncServer.shutDown();
+        }
+    }
+
+    @Test
+    public void testCompressionAndH2c() throws Exception {
+        System.setProperty(JettyServer.H2C, "true");
+        JettyServer h2cServer;
+        try {
+            h2cServer = new JettyServer(8083, JettyServer.Mode.BLOCKING, PatientStore.memory());
+        } finally {
+            System.clearProperty(JettyServer.H2C);
+        }
+        h2cServer.start();
+        try {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+            String note = "Patient reports intermittent chest pain. ".repeat(100);
+            client.send(HttpRequest.newBuilder(URI.create("http://localhost:8083/patient"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"z\", \"encounterNote\": \"" + note + "\", \"providerNpi\": 4}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<byte[]> r = client.send(HttpRequest.newBuilder(URI.create("http://localhost:8083/patient?id=1"))
+                    .header("Accept-Encoding", "gzip").build(), HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(HttpClient.Version.HTTP_2, r.version());
+            assertEquals("gzip", r.headers().firstValue("Content-Encoding").orElse(null));
+            assertTrue(r.body().length < note.length() / 4);
+        } finally {
+            h2cServer.shutDown();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        client.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/patient")).build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> r = client.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/metrics")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, r.statusCode());
+        assertTrue(r.body().contains("patients_http_requests_total{endpoint=\"/patient\",method=\"GET\",status=\"4xx\"}"));
+        assertTrue(r.body().contains("patients_http_request_duration_seconds_count{endpoint=\"/patient\",method=\"GET\"}"));
+    }
+
+    private static HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return HttpClient.newHttpClient().send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testCrud() throws Exception {
+        HttpResponse<String> created = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"Crud Test\", \"dob\": \"2000-01-02\", \"providerNpi\": 4}")));
+        assertEquals(200, created.statusCode());
+        int id = Integer.parseInt(created.body().replaceAll("^\\{\"id\":(\\d+),.*\\s*$", "$1").trim());
+        assertEquals("{\"id\":" + id + ",\"patient\":\"Crud Test\",\"dob\":\"2000-01-02\",\"providerNpi\":4}",
+                send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id))).body().trim());
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"id\": " + id + ", \"patient\": \"Crud Test\", \"provider\": \"Dr. Who\", \"providerNpi\": 5}")));
+        assertEquals(200, updated.statusCode());
+        assertEquals("{\"id\":" + id + ",\"patient\":\"Crud Test\",\"provider\":\"Dr. Who\",\"providerNpi\":5}",
+                send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id))).body().trim());
+
+        assertEquals(404, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"id\": 999999, \"patient\": \"a\", \"providerNpi\": 5}"))).statusCode());
+
+        assertEquals(204, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id)).DELETE()).statusCode());
+        assertEquals("null", send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id))).body().trim());
+    }
+
+    @Test
+    public void testBatchAndCursor() throws Exception {
+        HttpResponse<String> batch = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/batch"))
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"a\", \"providerNpi\": 1}\n{\"patient\": \"b\"}\n{\"patient\": \"c\", \"providerNpi\": 1}\n")));
+        assertEquals(200, batch.statusCode());
+        assertTrue(batch.body().matches("\\{\"ids\":\\[\\d+,null,\\d+],\"errors\":\\[\\{\"index\":1,\"error\":\".providerNpi cannot be null\"}]}\\s*"), batch.body());
+        assertEquals(400, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"patient\": \"a\""))).statusCode());
+
+        // walk all the pages with the cursor
+        int count = 0;
+        String cursor = "";
+        while (cursor != null) {
+            HttpResponse<String> page = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?limits=1&cursor=" + cursor)));
+            assertEquals(200, page.statusCode());
+            count += page.body().trim().equals("[]") ? 0 : page.body().split("\"id\"").length - 1;
+            cursor = page.headers().firstValue(PatientsServlet.NEXT_CURSOR_HEADER).orElse(null);
+        }
+        assertTrue(count >= 2);
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"patient\": \"s\", \"encounterNote\": \"Searchable rash\", \"providerNpi\": 4}]")));
+        HttpResponse<String> r = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/search?q=searchable")));
+        assertEquals(200, r.statusCode());
+        assertTrue(r.body().startsWith("{\"total\":1,\"hits\":[{\"id\":"));
+        assertEquals(400, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/search"))).statusCode());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        HttpResponse<String> r = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/stats")));
+        assertEquals(200, r.statusCode());
+        assertTrue(r.body().contains("\"providerNpi\":{"));
+        assertTrue(r.body().contains("\"encounterMonth\":{"));
+    }
+
+    @Test
+    public void testETag() throws Exception {
+        HttpResponse<String> created = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"e\", \"encounterNote\": \"long note\", \"providerNpi\": 4}")));
+        String etag = created.headers().firstValue("ETag").orElseThrow();
+        String id = created.body().replaceAll(".*\"id\":(\\d+).*", "$1").trim();
+
+        // the tag of POST is the tag of the next GET
+        HttpResponse<String> r = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id)).header("If-None-Match", etag));
+        assertEquals(304, r.statusCode());
+        assertEquals("", r.body());
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"id\": " + id + ", \"patient\": \"e\", \"encounterNote\": \"longer note\", \"providerNpi\": 4}")));
+        assertTrue(!etag.equals(updated.headers().firstValue("ETag").orElseThrow()));
+        assertEquals(200, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id)).header("If-None-Match", etag)).statusCode());
+
+        // pages
+        String pageTag = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?limits=2"))).headers().firstValue("ETag").orElseThrow();
+        assertEquals(304, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?limits=2")).header("If-None-Match", "\"x\", W/" + pageTag)).statusCode());
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"x\", \"chiefComplaint\": \"Exported\", \"providerNpi\": 9}")));
+        HttpResponse<String> csv = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/export?format=csv&chiefComplaint=exported")));
+        assertEquals(200, csv.statusCode());
+        assertEquals("patient;dob;encounter date;provider;encounter note;chief complaint;provider npi\nx;;;;;Exported;9\n", csv.body());
+        HttpResponse<String> ndjson = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/export")));
+        assertTrue(ndjson.body().contains("\"chiefComplaint\":\"Exported\""));
+        assertEquals(400, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients/export?format=xml"))).statusCode());
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        HttpResponse<String> created = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"f\", \"encounterNote\": \"Projected note\", \"chiefComplaint\": \"Projected\", \"providerNpi\": 4}")));
+        String id = created.body().replaceAll(".*\"id\":(\\d+).*", "$1").trim();
+
+        // lists omit the note by default
+        HttpResponse<String> list = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?chiefComplaint=projected")));
+        assertTrue(list.body().contains("\"patient\":\"f\""));
+        assertTrue(!list.body().contains("encounterNote"));
+        list = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?chiefComplaint=projected&fields=all")));
+        assertTrue(list.body().contains("\"encounterNote\":\"Projected note\""));
+        list = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?chiefComplaint=projected&fields=patient")));
+        assertEquals("[{\"id\":" + id + ",\"patient\":\"f\"}]", list.body().trim());
+
+        // the note on demand
+        HttpResponse<String> note = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id + "&fields=encounterNote")));
+        assertEquals("{\"id\":" + id + ",\"encounterNote\":\"Projected note\"}", note.body().trim());
+        assertEquals(400, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?fields=ssn"))).statusCode());
+    }
+
+    @Test
+    public void testETagWithoutProvider() throws Exception {
+        // npi 31 has a name
+        send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"n\", \"provider\": \"Dr. Named\", \"providerNpi\": 31}")));
+        // a record without a provider takes the name of its npi, in the response and in its tag
+        HttpResponse<String> created = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"patient\": \"m\", \"providerNpi\": 31}")));
+        assertTrue(created.body().contains("\"provider\":\"Dr. Named\""));
+        String id = created.body().replaceAll(".*\"id\":(\\d+).*", "$1").trim();
+        String etag = created.headers().firstValue("ETag").orElseThrow();
+        assertEquals(304, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id)).header("If-None-Match", etag)).statusCode());
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"id\": " + id + ", \"patient\": \"m2\", \"providerNpi\": 31}")));
+        assertTrue(updated.body().contains("\"provider\":\"Dr. Named\""));
+        etag = updated.headers().firstValue("ETag").orElseThrow();
+        assertEquals(304, send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patient?id=" + id)).header("If-None-Match", etag)).statusCode());
+    }
+
+    @Test
+    public void testPatientsInvalidFilter() throws Exception {
+        HttpResponse<String> r = send(HttpRequest.newBuilder(URI.create("http://localhost:8080/patients?dobFrom=01/02/2000")));
+        assertEquals(400, r.statusCode());
+        assertTrue(r.body().contains("dobFrom"));
+    }
 }
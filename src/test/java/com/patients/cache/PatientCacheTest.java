@@ -0,0 +1,120 @@
+package com.patients.cache;
+
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PatientCacheTest {
+
+    private static Patient patient(int id) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        patient.setPatient("patient " + id);
+        patient.setProviderNpi(1);
+        return patient;
+    }
+
+    @Test
+    public void testReadThroughAndLruEviction() throws Exception {
+        PatientCache cache = new PatientCache(2, 0);
+        Patient first = cache.get(1, PatientCacheTest::patient);
+        assertSame(first, cache.get(1, id -> { throw new AssertionError("should be cached"); }));
+        cache.get(2, PatientCacheTest::patient);
+        // 1 is used more recently than 2, so 2 is evicted
+        cache.get(1, PatientCacheTest::patient);
+        cache.get(3, PatientCacheTest::patient);
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get(1, PatientCacheTest::patient));
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testNotFoundIsNotCached() throws Exception {
+        PatientCache cache = new PatientCache(10, 0);
+        assertNull(cache.get(1, id -> null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        PatientCache cache = new PatientCache(10, 0);
+        cache.get(1, PatientCacheTest::patient);
+        cache.invalidate(1);
+        Patient reloaded = patient(1);
+        assertSame(reloaded, cache.get(1, id -> reloaded));
+    }
+
+    @Test
+    public void testLoadOverlappingInvalidationIsNotCached() throws Exception {
+        PatientCache cache = new PatientCache(10, 0);
+        cache.get(1, id -> {
+            // another request updates the patient while it is loaded
+            cache.invalidate(id);
+            return patient(id);
+        });
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLoadOverlappingOtherInvalidationIsCached() throws Exception {
+        PatientCache cache = new PatientCache(10, 0);
+        Patient first = cache.get(1, id -> {
+            // another patient is updated while this one is loaded
+            cache.invalidate(2);
+            return patient(id);
+        });
+        assertSame(first, cache.get(1, id -> { throw new AssertionError("should be cached"); }));
+    }
+
+    @Test
+    public void testInvalidateProvider() throws Exception {
+        PatientCache cache = new PatientCache(10, 0);
+        cache.get(1, PatientCacheTest::patient);
+        Patient other = cache.get(2, id -> {
+            Patient patient = patient(id);
+            patient.setProviderNpi(2);
+            return patient;
+        });
+        // the name of npi 1 changed
+        cache.invalidateProvider(1);
+        assertEquals(1, cache.size());
+        assertSame(other, cache.get(2, id -> { throw new AssertionError("should be cached"); }));
+    }
+
+    @Test
+    public void testInvalidatedEntriesDoNotCountForEviction() throws Exception {
+        PatientCache cache = new PatientCache(10, 0);
+        for (int id = 1; id <= 100; id++) {
+            cache.get(id, PatientCacheTest::patient);
+            cache.invalidate(id);
+        }
+        cache.get(200, PatientCacheTest::patient);
+        cache.invalidateProvider(1);
+        for (int id = 101; id <= 110; id++) {
+            cache.get(id, PatientCacheTest::patient);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(0, cache.getEvictions());
+        for (int id = 101; id <= 110; id++) {
+            cache.get(id, i -> { throw new AssertionError("should be cached"); });
+        }
+        cache.get(111, PatientCacheTest::patient);
+        assertEquals(10, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        PatientCache cache = new PatientCache(10, 1);
+        cache.get(1, PatientCacheTest::patient);
+        Thread.sleep(5);
+        Patient reloaded = patient(1);
+        assertSame(reloaded, cache.get(1, id -> reloaded));
+        assertEquals(1, cache.getEvictions());
+    }
+}
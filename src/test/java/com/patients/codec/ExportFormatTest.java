@@ -0,0 +1,112 @@
+package com.patients.codec;
+
+import com.patients.CSVParser;
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.StringWriter;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ExportFormatTest {
+
+    private static Patient patient(int id, String note) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        patient.setPatient("john smith");
+        patient.setDob(Date.valueOf("1940-01-09"));
+        patient.setEncounterDate(new java.util.Date(Date.valueOf("2019-10-04").getTime()));
+        patient.setProvider("Dr. É");
+        patient.setEncounterNote(note);
+        patient.setChiefComplaint("diabetes");
+        patient.setProviderNpi(5);
+        return patient;
+    }
+
+    private static String describe(Patient p) {
+        // the encounter date is a java.util.Date when built, a java.sql.Date when read
+        String encounterDate = p.getEncounterDate() == null ? null : new Date(p.getEncounterDate().getTime()).toString();
+        return String.join("|", p.getPatient(), String.valueOf(p.getDob()), encounterDate,
+                p.getProvider(), p.getEncounterNote(), p.getChiefComplaint(), String.valueOf(p.getProviderNpi()));
+    }
+
+    @Test
+    public void testCsvRoundTrip() throws Exception {
+        StringWriter writer = new StringWriter();
+        PatientCodec.ListWriter list = CsvPatientFormat.beginList(writer);
+        list.write(patient(1, "fine; then\nworse"));
+        Patient empty = new Patient();
+        empty.setPatient("x");
+        empty.setProviderNpi(3);
+        list.write(empty);
+        list.end();
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(CsvPatientFormat.HEADER, lines[0]);
+        Patient read = CSVParser.lineToPatient(lines[1]);
+        assertEquals(describe(patient(1, "fine, then worse")), describe(read));
+        read = CSVParser.lineToPatient(lines[2]);
+        assertEquals("x", read.getPatient());
+        assertNull(read.getDob());
+        assertNull(read.getEncounterNote());
+        assertEquals(3, read.getProviderNpi());
+    }
+
+    @Test
+    public void testNdjson() throws Exception {
+        StringWriter writer = new StringWriter();
+        PatientCodec.ListWriter list = PatientCodec.json().beginLines(writer);
+        list.write(patient(1, "a\nb"));
+        list.write(patient(2, null));
+        list.end();
+        PatientCodec.ListReader reader = PatientCodec.json().readLines(new java.io.StringReader(writer.toString()));
+        assertEquals("a\nb", reader.next().getEncounterNote());
+        assertEquals(2, reader.next().getId());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 1; i <= BinaryPatientFormat.BLOCK_ROWS + 10; i++) {
+            patients.add(patient(i, i % 2 == 0 ? null : "note " + i));
+        }
+        patients.get(3).setDob(null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PatientCodec.ListWriter writer = BinaryPatientFormat.beginList(out);
+        for (Patient patient : patients) {
+            writer.write(patient);
+        }
+        writer.end();
+
+        PatientCodec.ListReader reader = BinaryPatientFormat.readList(new ByteArrayInputStream(out.toByteArray()));
+        List<Patient> read = new ArrayList<>();
+        while (reader.hasNext()) {
+            read.add(reader.next());
+        }
+        assertEquals(patients.size(), read.size());
+        for (int i = 0; i < patients.size(); i++) {
+            assertEquals(patients.get(i).getId(), read.get(i).getId());
+            assertEquals(describe(patients.get(i)), describe(read.get(i)));
+        }
+
+        // a truncated file has no end marker
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 4);
+        PatientCodec.ListReader partial = BinaryPatientFormat.readList(new ByteArrayInputStream(truncated));
+        assertThrows(EOFException.class, () -> {
+            while (partial.hasNext()) {
+                partial.next();
+            }
+        });
+    }
+}
@@ -0,0 +1,111 @@
+package com.patients.codec;
+
+import com.google.gson.JsonParseException;
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PatientCodecTest {
+
+    private final PatientCodec codec = PatientCodec.json();
+
+    private String write(Patient patient) throws Exception {
+        StringWriter writer = new StringWriter();
+        codec.write(patient, writer);
+        return writer.toString();
+    }
+
+    private Patient read(String json) throws Exception {
+        return codec.read(new StringReader(json));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        Patient patient = new Patient();
+        patient.setId(7);
+        patient.setPatient("john <smith>");
+        patient.setDob(Date.valueOf("1940-01-09"));
+        patient.setEncounterDate(new java.util.Date(Date.valueOf("2019-10-04").getTime()));
+        patient.setChiefComplaint("diabetes");
+        patient.setProviderNpi(5);
+        // ISO dates, null fields are omitted, html characters are escaped like Gson does
+        assertEquals("{\"id\":7,\"patient\":\"john \\u003csmith\\u003e\",\"dob\":\"1940-01-09\",\"encounterDate\":\"2019-10-04\","
+                + "\"chiefComplaint\":\"diabetes\",\"providerNpi\":5}", write(patient));
+        assertEquals("null", write(null));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        Patient patient = read("{\"patient\": \"Firstname Lastname\", \"dob\": \"2000-01-02\", \"encounterDate\": \"Apr 20, 2022\","
+                + " \"providerNpi\": \"4\", \"provider\": null, \"unknown\": {\"a\": [1, 2]}}");
+        assertEquals("Firstname Lastname", patient.getPatient());
+        assertEquals(Date.valueOf("2000-01-02"), patient.getDob());
+        // the date format older servers returned is still accepted
+        assertEquals(Date.valueOf("2022-04-20"), patient.getEncounterDate());
+        assertEquals(4, patient.getProviderNpi());
+        assertNull(patient.getProvider());
+        assertNull(patient.getId());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Patient patient = read("{\"id\": 1, \"patient\": \"a\", \"dob\": \"1955-08-03\", \"encounterNote\": \"line\\nbreak\", \"providerNpi\": 9}");
+        assertEquals(write(patient), write(read(write(patient))));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        assertNull(read(""));
+        assertThrows(JsonParseException.class, () -> read("{\"dob\": \"Apirl 5, 1970\"}"));
+        assertThrows(JsonParseException.class, () -> read("{\"providerNpi\": \"five\"}"));
+        assertThrows(JsonParseException.class, () -> read("{\"patient\": "));
+    }
+
+    @Test
+    public void testList() throws Exception {
+        StringWriter writer = new StringWriter();
+        PatientCodec.ListWriter list = codec.beginList(writer);
+        for (int id : List.of(1, 2)) {
+            Patient patient = new Patient();
+            patient.setId(id);
+            list.write(patient);
+        }
+        list.end();
+        assertEquals("[{\"id\":1},{\"id\":2}]", writer.toString());
+    }
+
+    @Test
+    public void testReadList() throws Exception {
+        PatientCodec.ListReader list = codec.readList(new StringReader("[{\"id\": 1}, {\"providerNpi\": \"five\", \"x\": [1]}, null, {\"id\": 3}]"));
+        assertEquals(1, list.next().getId());
+        // an invalid element does not stop the list
+        assertThrows(JsonParseException.class, list::next);
+        assertNull(list.next());
+        assertEquals(3, list.next().getId());
+        assertFalse(list.hasNext());
+        assertThrows(IOException.class, () -> codec.readList(new StringReader("{\"id\": 1}")));
+        PatientCodec.ListReader malformed = codec.readList(new StringReader("[{\"id\": 1}, {\"id\""));
+        malformed.next();
+        assertThrows(IOException.class, malformed::next);
+    }
+
+    @Test
+    public void testReadLines() throws Exception {
+        PatientCodec.ListReader lines = codec.readLines(new StringReader("{\"id\": 1}\n\n{\"id\"\r\n{\"id\": 3}\n"));
+        assertEquals(1, lines.next().getId());
+        // a malformed line only invalidates its line
+        assertThrows(JsonParseException.class, lines::next);
+        assertEquals(3, lines.next().getId());
+        assertFalse(lines.hasNext());
+    }
+}
@@ -0,0 +1,26 @@
+package com.patients.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchInserterTest {
+
+    @Test
+    public void testIsTransient() {
+        assertTrue(BatchInserter.isTransient(new SQLTransactionRollbackException("Deadlock found", "40001", 1213)));
+        assertTrue(BatchInserter.isTransient(new SQLException("Lock wait timeout exceeded", "HY000", 1205)));
+        assertTrue(BatchInserter.isTransient(new SQLException("batch failed", new SQLException("Lock wait timeout exceeded", "HY000", 1205))));
+        // the connection is gone, a replay on it fails the same way
+        assertFalse(BatchInserter.isTransient(new SQLRecoverableException("Communications link failure", "08S01")));
+        assertFalse(BatchInserter.isTransient(new SQLException("batch failed", new SQLException("Lost connection", "HY000", 2013))));
+        assertFalse(BatchInserter.isTransient(new SQLException("Data too long for column 'patient'", "22001", 1406)));
+        assertFalse(BatchInserter.isTransient(new SQLIntegrityConstraintViolationException("Column 'patient' cannot be null", "23000", 1048)));
+    }
+}
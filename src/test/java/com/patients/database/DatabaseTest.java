@@ -0,0 +1,43 @@
+package com.patients.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DatabaseTest {
+
+    @Test
+    public void testProfiles() {
+        Properties server = Database.loadConfig(Database.SERVER_PROFILE, null, new Properties());
+        assertEquals("true", server.getProperty("dataSource.useServerPrepStmts"));
+        assertEquals("true", server.getProperty("dataSource.cachePrepStmts"));
+        Properties loader = Database.loadConfig(Database.LOADER_PROFILE, null, new Properties());
+        assertEquals("false", loader.getProperty("dataSource.useServerPrepStmts"));
+        assertEquals("true", loader.getProperty("dataSource.rewriteBatchedStatements"));
+        assertThrows(IllegalArgumentException.class, () -> Database.loadConfig("unknown", null, new Properties()));
+    }
+
+    @Test
+    public void testOverrides() throws Exception {
+        Path file = Files.createTempFile("db", ".properties");
+        try {
+            Files.writeString(file, "maximumPoolSize=20\nleakDetectionThreshold=10000\ndataSource.prepStmtCacheSize=500\n");
+            Properties system = new Properties();
+            system.setProperty(Database.DB_POOL_SIZE, "30");
+            system.setProperty("hikari.dataSource.prepStmtCacheSize", "1000");
+            Properties props = Database.loadConfig(Database.SERVER_PROFILE, file.toString(), system);
+            // the file overrides the profile, the jvm options override the file
+            assertEquals("10000", props.getProperty("leakDetectionThreshold"));
+            assertEquals("30", props.getProperty("maximumPoolSize"));
+            assertEquals("1000", props.getProperty("dataSource.prepStmtCacheSize"));
+            assertEquals("true", props.getProperty("dataSource.cachePrepStmts"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
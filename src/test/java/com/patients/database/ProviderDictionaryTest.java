@@ -0,0 +1,50 @@
+package com.patients.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProviderDictionaryTest {
+
+    @Test
+    public void testNames() throws Exception {
+        ProviderDictionary dictionary = new ProviderDictionary();
+        List<Integer> changed = new ArrayList<>();
+        dictionary.addListener(changed::add);
+        assertNull(dictionary.get(5));
+        String name = new String("Dr. A");
+        assertTrue(dictionary.changes(5, name));
+        dictionary.put(5, name);
+        // a record without a name keeps the name of its npi
+        assertFalse(dictionary.changes(5, null));
+        dictionary.put(5, null);
+        assertFalse(dictionary.changes(5, "Dr. A"));
+        dictionary.put(5, new String("Dr. A"));
+        assertSame(name, dictionary.get(5));
+        assertSame(name, dictionary.canonicalName(5, "Dr. A"));
+        assertEquals("Dr. B", dictionary.canonicalName(6, "Dr. B"));
+        assertTrue(dictionary.changes(5, "Dr. B"));
+        dictionary.put(5, "Dr. B");
+        assertEquals("Dr. B", dictionary.get(5));
+        // told about the new name and the rename, not about the unchanged ones
+        assertEquals(List.of(5, 5), changed);
+        assertEquals(1, dictionary.size());
+        assertNull(dictionary.get(null));
+        assertFalse(dictionary.changes(null, "Dr. C"));
+    }
+
+    @Test
+    public void testChiefComplaints() {
+        ProviderDictionary dictionary = new ProviderDictionary();
+        String complaint = dictionary.internChiefComplaint(new String("cough"));
+        assertSame(complaint, dictionary.internChiefComplaint(new String("cough")));
+        assertNull(dictionary.internChiefComplaint(null));
+    }
+}
@@ -0,0 +1,34 @@
+package com.patients.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void testMembership() {
+        DuplicateFilter filter = new DuplicateFilter(1000);
+        byte[][] hashes = new byte[2000][];
+        Random random = new Random(42);
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = new byte[MappedCSVReader.CONTENT_HASH_LENGTH];
+            random.nextBytes(hashes[i]);
+        }
+        for (int i = 0; i < 1000; i++) {
+            filter.put(hashes[i]);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            // no false negatives
+            assertTrue(filter.mightContain(hashes[i]));
+            if (filter.mightContain(hashes[1000 + i])) {
+                falsePositives++;
+            }
+        }
+        // sized for 1%
+        assertTrue(falsePositives < 40, falsePositives + " false positives");
+    }
+}
@@ -0,0 +1,35 @@
+package com.patients.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class IngestCheckpointTest {
+
+    @Test
+    public void testSaveLoad(@TempDir Path dir) throws Exception {
+        Path csv = Files.writeString(dir.resolve("patients.csv"), "header\na;1;2;3;4;5;6\n");
+        IngestCheckpoint checkpoint = new IngestCheckpoint(dir.resolve("patients.csv.checkpoint"), csv);
+        assertSame(IngestCheckpoint.START, checkpoint.load());
+
+        checkpoint.save(new IngestCheckpoint.Position(7, 2));
+        IngestCheckpoint.Position position = checkpoint.load();
+        assertEquals(7, position.getOffset());
+        assertEquals(2, position.getLine());
+
+        // another version of the file starts over
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(Files.getLastModifiedTime(csv).toMillis() + 1000));
+        assertSame(IngestCheckpoint.START, checkpoint.load());
+
+        checkpoint.delete();
+        assertFalse(Files.exists(dir.resolve("patients.csv.checkpoint")));
+        assertSame(IngestCheckpoint.START, checkpoint.load());
+    }
+}
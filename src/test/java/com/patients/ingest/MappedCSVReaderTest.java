@@ -0,0 +1,155 @@
+package com.patients.ingest;
+
+import com.patients.CSVParser;
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedCSVReaderTest {
+
+    private static final Path TEST_DATA = Path.of("Intern_Test_Data.csv");
+
+    /**
+     * The patients CSVParser.lineToPatient converts from the file
+     */
+    private static List<String> expected(Path file) throws Exception {
+        List<String> lines = Files.readAllLines(file);
+        List<String> patients = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            Patient patient = CSVParser.lineToPatient(line);
+            if (patient != null) {
+                patients.add(describe(patient));
+            }
+        }
+        return patients;
+    }
+
+    private static String describe(Patient p) {
+        return String.join("|", p.getPatient(), Objects.toString(p.getDob()), Objects.toString(p.getEncounterDate()),
+                Objects.toString(p.getProvider()), Objects.toString(p.getEncounterNote()),
+                Objects.toString(p.getChiefComplaint()), Objects.toString(p.getProviderNpi()));
+    }
+
+    @Test
+    public void testSameAsLineToPatient() throws Exception {
+        List<String> expected = expected(TEST_DATA);
+        // windows smaller than a line force remapping and growing
+        for (int windowSize : new int[] {64, 1000, 4096, MappedCSVReader.DEFAULT_WINDOW_SIZE}) {
+            try (MappedCSVReader reader = new MappedCSVReader(TEST_DATA, windowSize)) {
+                List<String> actual = new ArrayList<>();
+                reader.read(reader.all(), p -> actual.add(describe(p)));
+                assertEquals(expected, actual, "window " + windowSize);
+                assertEquals(expected.size(), reader.getParsed());
+            }
+        }
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        List<String> expected = expected(TEST_DATA);
+        try (MappedCSVReader reader = new MappedCSVReader(TEST_DATA, 1000)) {
+            for (int parts : new int[] {1, 2, 7, 100, 10000}) {
+                List<MappedCSVReader.Chunk> chunks = reader.split(parts);
+                assertTrue(chunks.size() <= parts);
+                assertEquals(0, chunks.get(0).getStart());
+                assertEquals(reader.size(), chunks.get(chunks.size() - 1).getEnd());
+                List<String> actual = new ArrayList<>();
+                for (MappedCSVReader.Chunk chunk : chunks) {
+                    reader.read(chunk, p -> actual.add(describe(p)));
+                }
+                assertEquals(expected, actual, parts + " parts");
+            }
+        }
+    }
+
+    @Test
+    public void testColumnsAndLineEndings(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("patients.csv");
+        String content = "header\r\n"
+                + "a;January 9, 1940;10/4/2019;Dr. A;note;diabetes;5\r\n"
+                + "\r\n"
+                + "too;few;columns\r\n"
+                + "b;;; ;;;7;;\r\n"
+                + "c;1;2;3;4;5;6;7\r\n"
+                + "é;5 June 1950;2019/5/1;Dr. É;;cough;-3";
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        try (MappedCSVReader reader = new MappedCSVReader(file, 16)) {
+            List<Patient> patients = new ArrayList<>();
+            reader.read(reader.all(), patients::add);
+            assertEquals(3, patients.size());
+            assertEquals(3, reader.getSkipped());
+            assertEquals("a", patients.get(0).getPatient());
+            assertEquals("diabetes", patients.get(0).getChiefComplaint());
+            assertEquals(5, patients.get(0).getProviderNpi());
+            assertEquals(null, patients.get(1).getProvider());
+            assertEquals(7, patients.get(1).getProviderNpi());
+            assertEquals("Dr. É", patients.get(2).getProvider());
+            assertEquals(-3, patients.get(2).getProviderNpi());
+        }
+    }
+
+    @Test
+    public void testPositionsAndContentHash(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("patients.csv");
+        String content = "header\n"
+                + "a;January 9, 1940;10/4/2019;Dr. A;note;diabetes;5\n"
+                + "too;few;columns\n"
+                + "b;;; ;;;7;;\n"
+                + "a;January 9, 1940;10/4/2019;Dr. A;note;diabetes;5";
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        try (MappedCSVReader reader = new MappedCSVReader(file, 16)) {
+            reader.setContentHash(true);
+            List<Patient> patients = new ArrayList<>();
+            List<Long> lines = new ArrayList<>();
+            List<Long> next = new ArrayList<>();
+            reader.read(reader.all(), 1, (patient, line, offset) -> {
+                patients.add(patient);
+                lines.add(line);
+                next.add(offset);
+            });
+            assertEquals(List.of(2L, 4L, 5L), lines);
+            assertEquals(List.of((long) content.indexOf("too"), (long) content.lastIndexOf("a;"), reader.size()), next);
+            // same columns, same hash; trailing empty columns are not hashed
+            assertEquals(MappedCSVReader.CONTENT_HASH_LENGTH, patients.get(0).getContentHash().length);
+            assertArrayEquals(patients.get(0).getContentHash(), patients.get(2).getContentHash());
+            assertFalse(Arrays.equals(patients.get(0).getContentHash(), patients.get(1).getContentHash()));
+
+            // resume after the first patient
+            List<Long> resumed = new ArrayList<>();
+            reader.read(new MappedCSVReader.Chunk(next.get(0), reader.size()), 3, (patient, line, offset) -> resumed.add(line));
+            assertEquals(List.of(4L, 5L), resumed);
+        }
+    }
+
+    @Test
+    public void testProviderReused(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("patients.csv");
+        Files.writeString(file, "header\n"
+                + "a;;;Dr. A;;;5\n"
+                + "b;;;Dr. A;;;5\n"
+                + "c;;;Dr. B;;;5\n"
+                + "d;;; ;;;5\n", StandardCharsets.UTF_8);
+        try (MappedCSVReader reader = new MappedCSVReader(file)) {
+            List<Patient> patients = new ArrayList<>();
+            reader.read(reader.all(), patients::add);
+            assertSame(patients.get(0).getProvider(), patients.get(1).getProvider());
+            assertEquals("Dr. B", patients.get(2).getProvider());
+            assertNull(patients.get(3).getProvider());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.patients.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        long previous = -1;
+        for (int index = 0; index < 248; index++) {
+            long upper = Histogram.upperBound(index);
+            assertTrue(upper > previous);
+            // every value of the bucket maps back to it
+            assertEquals(index, Histogram.index(upper));
+            assertEquals(index, Histogram.index(previous + 1));
+            previous = upper;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void testHistogramQuantiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getQuantile(0.5));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500_000L, histogram.getSum());
+        for (double quantile : new double[] {0.5, 0.95, 0.99}) {
+            long actual = (long) (quantile * 1_000_000);
+            long estimate = histogram.getQuantile(quantile);
+            assertTrue(estimate >= actual && estimate <= actual * 1.25, quantile + ": " + estimate);
+        }
+        assertEquals(1_000_000, histogram.getQuantile(1));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_requests_total", "Requests", "path", "/a\"b").add(3);
+        registry.gauge("test_active", "Active", () -> 2);
+        registry.timer("test_seconds", "Latency", "path", "/a").record(1_500_000_000L);
+        assertThrows(IllegalArgumentException.class, () -> registry.timer("test_active", "Active"));
+        StringWriter writer = new StringWriter();
+        registry.write(writer);
+        assertEquals("# HELP test_active Active\n"
+                + "# TYPE test_active gauge\n"
+                + "test_active 2\n"
+                + "# HELP test_requests_total Requests\n"
+                + "# TYPE test_requests_total counter\n"
+                + "test_requests_total{path=\"/a\\\"b\"} 3\n"
+                + "# HELP test_seconds Latency\n"
+                + "# TYPE test_seconds summary\n"
+                + "test_seconds{path=\"/a\",quantile=\"0.5\"} 1.5\n"
+                + "test_seconds{path=\"/a\",quantile=\"0.95\"} 1.5\n"
+                + "test_seconds{path=\"/a\",quantile=\"0.99\"} 1.5\n"
+                + "test_seconds_sum{path=\"/a\"} 1.5\n"
+                + "test_seconds_count{path=\"/a\"} 1\n"
+                + "# TYPE test_seconds_max gauge\n"
+                + "test_seconds_max{path=\"/a\"} 1.5\n", writer.toString());
+    }
+}
@@ -0,0 +1,83 @@
+package com.patients.search;
+
+import com.patients.model.Patient;
+import com.patients.store.ObservedPatientStore;
+import com.patients.store.PatientStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SearchIndexTest {
+
+    private static Patient patient(String note, String complaint) {
+        Patient patient = new Patient();
+        patient.setPatient("p");
+        patient.setEncounterNote(note);
+        patient.setChiefComplaint(complaint);
+        patient.setProviderNpi(1);
+        return patient;
+    }
+
+    @Test
+    public void testTokenize() {
+        assertEquals(List.of("chest", "pain", "since", "2022", "bp", "140"), Tokenizer.tokenize("Chest-pain since 2022; a BP 140."));
+        assertEquals(List.of(), Tokenizer.tokenize(null));
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        PatientStore store = PatientStore.memory();
+        int chest = store.insert(patient("Chest pain, chest tightness", "Chest pain"));
+        int pain = store.insert(patient("Back pain after a fall", "Back pain"));
+        int none = store.insert(patient(null, "Diabetes"));
+
+        SearchIndex index = new SearchIndex();
+        index.build(store);
+        assertEquals(3, index.size());
+
+        // all terms must match, the patient repeating the term ranks first
+        assertArrayEquals(new int[] {chest, pain}, index.search("PAIN", 0, 10).getIds());
+        assertArrayEquals(new int[] {chest}, index.search("chest pain", 0, 10).getIds());
+        assertEquals(0, index.search("chest diabetes", 0, 10).getTotal());
+        assertEquals(0, index.search("unknown", 0, 10).getTotal());
+
+        // pages
+        SearchResult second = index.search("pain", 1, 1);
+        assertEquals(2, second.getTotal());
+        assertArrayEquals(new int[] {pain}, second.getIds());
+        assertEquals(0, index.search("pain", 2, 10).getIds().length);
+        assertArrayEquals(new int[] {none}, index.search("diabetes", 0, 10).getIds());
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        ObservedPatientStore store = new ObservedPatientStore(PatientStore.memory());
+        SearchIndex index = new SearchIndex();
+        index.build(store);
+        store.addListener(index);
+
+        int id = store.insert(patient("headache", null));
+        assertArrayEquals(new int[] {id}, index.search("headache", 0, 10).getIds());
+
+        Patient update = patient("fever", null);
+        update.setId(id);
+        store.update(update);
+        assertEquals(0, index.search("headache", 0, 10).getTotal());
+        assertArrayEquals(new int[] {id}, index.search("fever", 0, 10).getIds());
+
+        try (PatientStore.Batch batch = store.beginBatch(10)) {
+            batch.add(patient("fever and cough", null));
+            batch.add(patient("cough", null));
+            batch.commit();
+        }
+        assertEquals(2, index.search("fever", 0, 10).getTotal());
+        assertEquals(2, index.search("cough", 0, 10).getTotal());
+
+        store.delete(id);
+        assertEquals(1, index.search("fever", 0, 10).getTotal());
+        assertEquals(2, index.size());
+    }
+}
@@ -0,0 +1,65 @@
+package com.patients.stats;
+
+import com.patients.model.Patient;
+import com.patients.store.ObservedPatientStore;
+import com.patients.store.PatientStore;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PatientStatsTest {
+
+    private static Patient patient(int npi, String complaint, String encounterDate) {
+        Patient patient = new Patient();
+        patient.setPatient("p");
+        patient.setProviderNpi(npi);
+        patient.setChiefComplaint(complaint);
+        patient.setEncounterDate(encounterDate == null ? null : Date.valueOf(encounterDate));
+        return patient;
+    }
+
+    @Test
+    public void testBuildAndWrites() throws Exception {
+        ObservedPatientStore store = new ObservedPatientStore(PatientStore.memory());
+        store.insert(patient(4, "Cough", "2022-04-20"));
+        int id = store.insert(patient(4, null, "2022-04-01"));
+
+        PatientStats stats = new PatientStats();
+        stats.build(store);
+        store.addListener(stats);
+        PatientStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(2, snapshot.getTotal());
+        assertEquals(Map.of(4, 2L), snapshot.getByProviderNpi());
+        assertEquals(Map.of("Cough", 1L), snapshot.getByChiefComplaint());
+        assertEquals(Map.of("2022-04", 2L), snapshot.getByEncounterMonth());
+
+        // an update moves the patient to its new groups
+        Patient update = patient(7, "Cough", null);
+        update.setId(id);
+        store.update(update);
+        snapshot = stats.snapshot();
+        assertEquals(Map.of(4, 1L, 7, 1L), snapshot.getByProviderNpi());
+        assertEquals(Map.of("Cough", 2L), snapshot.getByChiefComplaint());
+        assertEquals(Map.of("2022-04", 1L), snapshot.getByEncounterMonth());
+
+        // empty groups are dropped
+        store.delete(id);
+        snapshot = stats.snapshot();
+        assertEquals(1, snapshot.getTotal());
+        assertEquals(Map.of(4, 1L), snapshot.getByProviderNpi());
+
+        try (PatientStore.Batch batch = store.beginBatch(10)) {
+            batch.add(patient(4, "Fever", "2021-12-31"));
+            batch.commit();
+        }
+        assertEquals(Map.of("2021-12", 1L, "2022-04", 1L), stats.snapshot().getByEncounterMonth());
+
+        // a rebuild finds the same counts
+        stats.build(store);
+        assertEquals(2, stats.snapshot().getTotal());
+        assertEquals(Map.of(4, 2L), stats.snapshot().getByProviderNpi());
+    }
+}
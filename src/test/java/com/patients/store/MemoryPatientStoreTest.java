@@ -0,0 +1,127 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MemoryPatientStoreTest {
+
+    private static Patient patient(String name, String provider) {
+        Patient patient = new Patient();
+        patient.setPatient(name);
+        patient.setDob(Date.valueOf("1940-01-09"));
+        patient.setProvider(provider);
+        patient.setProviderNpi(1);
+        return patient;
+    }
+
+    private static List<Integer> ids(PatientStore store, int afterId, int limits) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        store.listAfter(new PatientFilter(), afterId, limits, patient -> ids.add(patient.getId()));
+        return ids;
+    }
+
+    @Test
+    public void testCrud() throws Exception {
+        MemoryPatientStore store = new MemoryPatientStore();
+        int id = store.insert(patient("a", "Dr. " + "Who"));
+        assertEquals(1, id);
+        Patient loaded = store.get(id);
+        assertEquals("a", loaded.getPatient());
+        assertEquals(Date.valueOf("1940-01-09"), loaded.getDob());
+        assertNull(loaded.getEncounterDate());
+
+        // repeated providers are stored once
+        int other = store.insert(patient("b", "Dr. " + "Who"));
+        assertSame(loaded.getProvider(), store.get(other).getProvider());
+
+        // the provider name is the name of the npi, a record without one keeps it
+        Patient update = patient("c", null);
+        update.setId(id);
+        assertTrue(store.update(update));
+        assertEquals("Dr. Who", store.get(id).getProvider());
+        // a new name renames the provider of the npi
+        update.setProvider("Dr. No");
+        assertTrue(store.update(update));
+        assertEquals("Dr. No", store.get(other).getProvider());
+        update.setId(42);
+        assertFalse(store.update(update));
+
+        store.delete(id);
+        assertNull(store.get(id));
+        assertEquals(1, store.size());
+        assertThrows(SQLException.class, () -> store.insert(new Patient()));
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        MemoryPatientStore store = new MemoryPatientStore();
+        for (int i = 0; i < 3000; i++) {
+            store.insert(patient("p" + i, null));
+        }
+        store.delete(2);
+        assertEquals(List.of(1, 3, 4), ids(store, 0, 3));
+        assertEquals(List.of(2999, 3000), ids(store, 2998, 3));
+        List<Integer> offset = new ArrayList<>();
+        store.list(new PatientFilter(), 1, 2, patient -> offset.add(patient.getId()));
+        assertEquals(List.of(3, 4), offset);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        MemoryPatientStore store = new MemoryPatientStore();
+        try (PatientStore.Batch batch = store.beginBatch(10)) {
+            batch.add(patient("a", null));
+            batch.add(patient("b", null));
+            assertEquals(0, store.size());
+            assertEquals(List.of(1, 2), batch.commit());
+        }
+        try (PatientStore.Batch batch = store.beginBatch(10)) {
+            batch.add(patient("c", null));
+        }
+        // not committed
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        MemoryPatientStore store = new MemoryPatientStore();
+        for (int i = 0; i < 10; i++) {
+            Patient patient = patient((i % 2 == 0 ? "Smith " : "Jones ") + i, null);
+            patient.setProviderNpi(i % 3);
+            patient.setChiefComplaint(i < 5 ? "Diabetes" : null);
+            patient.setDob(Date.valueOf(LocalDate.of(1950 + i, 1, 1)));
+            store.insert(patient);
+        }
+        PatientFilter filter = new PatientFilter();
+        filter.setPatientPrefix("smith");
+        filter.setChiefComplaint("diabetes");
+        assertEquals(List.of(1, 3, 5), filterIds(store, filter));
+        filter = new PatientFilter();
+        filter.setProviderNpi(0);
+        filter.setDobFrom(LocalDate.of(1953, 1, 1));
+        filter.setDobTo(LocalDate.of(1959, 1, 1));
+        assertEquals(List.of(4, 7, 10), filterIds(store, filter));
+        filter.setEncounterDateFrom(LocalDate.of(2000, 1, 1));
+        // no encounter date, no match
+        assertEquals(List.of(), filterIds(store, filter));
+    }
+
+    private static List<Integer> filterIds(PatientStore store, PatientFilter filter) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        store.listAfter(filter, 0, 100, patient -> ids.add(patient.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,69 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ObservedPatientStoreTest {
+
+    private static Patient patient(Integer id, String name) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        patient.setPatient(name);
+        patient.setProviderNpi(1);
+        return patient;
+    }
+
+    @Test
+    public void testUpdatesOfOneIdAreNotifiedInOrder() throws Exception {
+        ObservedPatientStore store = new ObservedPatientStore(new MemoryPatientStore());
+        int id = store.insert(patient(null, "initial"));
+        CountDownLatch firstNotifying = new CountDownLatch(1);
+        CountDownLatch secondNotified = new CountDownLatch(1);
+        // the last value seen by the listener
+        String[] seen = new String[1];
+        store.addListener(new PatientListener() {
+            @Override
+            public void inserted(Patient patient) {
+            }
+
+            @Override
+            public void updated(Patient patient) {
+                try {
+                    if (patient.getPatient().equals("first")) {
+                        // a slow listener: without the lock of the id, the second update overtakes the first one here
+                        firstNotifying.countDown();
+                        secondNotified.await(200, TimeUnit.MILLISECONDS);
+                    } else {
+                        secondNotified.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                seen[0] = patient.getPatient();
+            }
+
+            @Override
+            public void deleted(int id) {
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> first = executor.submit(() -> store.update(patient(id, "first")));
+            firstNotifying.await();
+            store.update(patient(id, "second"));
+            first.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("second", store.get(id).getPatient());
+        assertEquals("second", seen[0]);
+    }
+}
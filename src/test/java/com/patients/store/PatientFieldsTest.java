@@ -0,0 +1,59 @@
+package com.patients.store;
+
+import com.patients.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PatientFieldsTest {
+
+    @Test
+    public void testParse() {
+        PatientFields fields = PatientFields.parse("patient, DOB,");
+        assertEquals("id, patient, dob", fields.columns());
+        assertTrue(fields.contains(PatientFields.Field.ID));
+        assertFalse(fields.contains(PatientFields.Field.ENCOUNTER_NOTE));
+        assertSame(PatientFields.ALL, PatientFields.parse("all"));
+        assertSame(PatientFields.ALL, PatientFields.parse("patient,dob,encounterDate,provider,encounterNote,chiefComplaint,providerNpi"));
+        assertEquals("id, patient, dob, encounter_date, chief_complaint, provider_npi", PatientFields.WITHOUT_NOTE.columns());
+        // the provider name is resolved from the npi
+        assertEquals("id, provider_npi", PatientFields.parse("provider").columns());
+        assertThrows(IllegalArgumentException.class, () -> PatientFields.parse("patient,ssn"));
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        Patient patient = new Patient();
+        patient.setPatient("a");
+        patient.setDob(Date.valueOf("1940-01-09"));
+        patient.setEncounterNote("a long note");
+        patient.setProviderNpi(1);
+        MemoryPatientStore store = new MemoryPatientStore();
+        store.insert(patient);
+
+        Patient projected = PatientFields.parse("encounterNote").project(patient);
+        assertEquals(1, projected.getId());
+        assertEquals("a long note", projected.getEncounterNote());
+        assertNull(projected.getPatient());
+        assertSame(patient, PatientFields.ALL.project(patient));
+
+        List<Patient> page = new ArrayList<>();
+        store.listAfter(new PatientFilter(), PatientFields.WITHOUT_NOTE, 0, 10, page::add);
+        assertEquals("a", page.get(0).getPatient());
+        assertEquals(1, page.get(0).getProviderNpi());
+        assertNull(page.get(0).getEncounterNote());
+        page.clear();
+        store.list(new PatientFilter(), PatientFields.parse("dob"), 0, 10, page::add);
+        assertEquals(Date.valueOf("1940-01-09"), page.get(0).getDob());
+        assertNull(page.get(0).getPatient());
+    }
+}
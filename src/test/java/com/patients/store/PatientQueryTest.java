@@ -0,0 +1,29 @@
+package com.patients.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PatientQueryTest {
+
+    @Test
+    public void testWhere() {
+        assertEquals("", new PatientQuery(new PatientFilter()).where());
+        assertEquals(" where id > ?", new PatientQuery(new PatientFilter()).afterId(5).where());
+        PatientFilter filter = new PatientFilter();
+        filter.setProviderNpi(4);
+        filter.setPatientPrefix("o'brien");
+        filter.setDobFrom(LocalDate.of(1950, 1, 1));
+        filter.setEncounterDateTo(LocalDate.of(2020, 1, 1));
+        // the values are never part of the SQL
+        assertEquals(" where id > ? and provider_npi = ? and patient like ? escape '!' and dob >= ? and encounter_date <= ?",
+                new PatientQuery(filter).afterId(0).where());
+    }
+
+    @Test
+    public void testEscapeLike() {
+        assertEquals("100!% !_a!!b", PatientQuery.escapeLike("100% _a!b"));
+    }
+}